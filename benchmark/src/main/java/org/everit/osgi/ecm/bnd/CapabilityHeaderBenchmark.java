@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.version.Version;
+
+/**
+ * Compares the allocation and throughput of {@link CapabilityHeaderWriter} with building the
+ * header from {@link Attrs} and {@link Parameters} instances. Run it with the GC profiler to see
+ * the allocation rate. The class is in the package of the plugin to reach the package-private
+ * writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CapabilityHeaderBenchmark {
+
+  private List<ComponentData> components;
+
+  @Param({ "10", "1000" })
+  public int componentCount;
+
+  @Benchmark
+  public String parameters() {
+    StringBuilder sb = new StringBuilder();
+    for (ComponentData componentData : components) {
+      Collection<Parameters> provides = new ArrayList<>();
+
+      Attrs attrs = new Attrs();
+      attrs.put("componentId", componentData.getComponentId());
+      attrs.putTyped("version", componentData.getVersion());
+      attrs.put("class", componentData.getClassName());
+      attrs.put("label", componentData.getLabel());
+      attrs.put("description", componentData.getDescription());
+      Parameters parameters = new Parameters();
+      parameters.put("org.everit.osgi.ecm.component", attrs);
+      provides.add(parameters);
+
+      for (Collection<String> serviceInterfaces : componentData.getServicesWithInterfaces()) {
+        attrs = new Attrs();
+        attrs.putTyped("objectClass", serviceInterfaces);
+        attrs.put("org.everit.osgi.ecm.component.id", componentData.getComponentId());
+        attrs.putTyped("org.everit.osgi.ecm.component.version", componentData.getVersion());
+        parameters = new Parameters();
+        parameters.put("osgi.service", attrs);
+        provides.add(parameters);
+      }
+
+      for (Parameters provide : provides) {
+        if (sb.length() > 0) {
+          sb.append(',');
+        }
+        sb.append(provide.toString());
+      }
+    }
+    return sb.toString();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    components = new ArrayList<>(componentCount);
+    for (int i = 0; i < componentCount; i++) {
+      ComponentData componentData = new ComponentData();
+      componentData.setClassName("org.example.component.Component" + i);
+      componentData.setComponentId("component" + i);
+      componentData.setLabel("Component " + i);
+      componentData.setDescription("Description of component " + i);
+      componentData.setVersion(new Version(1, 0, i));
+
+      Collection<Collection<String>> servicesWithInterfaces = new LinkedHashSet<>();
+      servicesWithInterfaces.add(new LinkedHashSet<>(
+          Arrays.asList("org.example.api.Service" + i, "java.io.Serializable")));
+      servicesWithInterfaces.add(new LinkedHashSet<>(Arrays.asList("java.lang.Runnable")));
+      componentData.setServicesWithInterfaces(servicesWithInterfaces);
+      components.add(componentData);
+    }
+  }
+
+  @Benchmark
+  public String writer() {
+    StringBuilder sb = new StringBuilder(CapabilityHeaderWriter.estimateLength(components));
+    CapabilityHeaderWriter capabilityHeaderWriter = new CapabilityHeaderWriter(sb);
+    for (ComponentData componentData : components) {
+      capabilityHeaderWriter.write(componentData);
+    }
+    return sb.toString();
+  }
+}
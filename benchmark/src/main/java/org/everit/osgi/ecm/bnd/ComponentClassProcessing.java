@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+
+/**
+ * Runs the processing of the component classes the same way as the plugin does, without querying
+ * the classes and writing the outputs. The class is in the package of the plugin to reach the
+ * package-private {@link ComponentClassProcessor}.
+ */
+public final class ComponentClassProcessing {
+
+  /**
+   * Processes the component classes of an analyzed jar with the shared type lookup cache and
+   * without the component data cache, and resolves the labels and descriptions of the
+   * components.
+   *
+   * @param analyzer
+   *          The Analyzer whose class space is already filled.
+   * @param classes
+   *          The component classes.
+   * @return The data of the components.
+   * @throws Exception
+   *           if a class cannot be processed.
+   */
+  public static List<ComponentData> process(final Analyzer analyzer,
+      final Collection<Clazz> classes) throws Exception {
+    List<ComponentData> result = new ArrayList<>(classes.size());
+    try (AnalysisContext analysisContext = new AnalysisContext(analyzer, null,
+        TypeLookupCache.getSharedInstance(), new AnalysisStatistics(false))) {
+      ComponentClassProcessor componentClassProcessor =
+          new ComponentClassProcessor(analysisContext);
+      for (Clazz clazz : classes) {
+        ComponentData componentData = componentClassProcessor.process(clazz);
+        if (componentData != null) {
+          componentData.resolveAttributes();
+          result.add(componentData);
+        }
+      }
+    }
+    return result;
+  }
+
+  private ComponentClassProcessing() {
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Manifest;
+
+import org.everit.osgi.ecm.bnd.ComponentClassProcessing;
+import org.everit.osgi.ecm.bnd.ComponentData;
+import org.everit.osgi.ecm.bnd.ECMBndAnalyzerPlugin;
+import org.everit.osgi.ecm.bnd.benchmark.SyntheticJarGenerator.ServiceDeclaration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+
+/**
+ * Benchmarks of the ECM bnd plugin on synthetic jars.
+ * <ul>
+ * <li>{@link #calcManifest()}: a complete manifest calculation with the plugin registered.</li>
+ * <li>{@link #analyzeJar(AnalyzedJar)}: only the plugin on a jar that bnd already analyzed.</li>
+ * <li>{@link #processComponentClasses(AnalyzedJar)}: only the processing of the component
+ * classes, as the plugin does it, without querying the classes and writing the outputs.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ECMBndAnalyzerPluginBenchmark {
+
+  /**
+   * A jar that is already analyzed by bnd without the ECM plugin.
+   */
+  @State(Scope.Thread)
+  public static class AnalyzedJar {
+
+    private Analyzer analyzer;
+
+    private List<Clazz> componentClasses;
+
+    /**
+     * Analyzes the jar before every invocation, as the plugin modifies the state of the Analyzer.
+     */
+    @Setup(Level.Invocation)
+    public void setUp(final ECMBndAnalyzerPluginBenchmark benchmark) throws Exception {
+      analyzer = new Analyzer();
+      analyzer.setJar(benchmark.jarFile);
+      analyzer.analyze();
+      componentClasses = new ArrayList<>(analyzer.getClasses("getComponentClasses",
+          Clazz.QUERY.ANNOTATED.name(), "org.everit.osgi.ecm.annotation.Component"));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+      analyzer.close();
+    }
+  }
+
+  @Param({ "10", "100", "1000" })
+  public int componentCount;
+
+  @Param({ "0", "3" })
+  public int inheritanceDepth;
+
+  private File jarFile;
+
+  @Param({ "true", "false" })
+  public boolean localized;
+
+  @Param({ "ALL_INTERFACES", "EXPLICIT", "NONE" })
+  public ServiceDeclaration serviceDeclaration;
+
+  @Benchmark
+  public boolean analyzeJar(final AnalyzedJar analyzedJar) throws Exception {
+    return new ECMBndAnalyzerPlugin().analyzeJar(analyzedJar.analyzer);
+  }
+
+  @Benchmark
+  public Manifest calcManifest() throws Exception {
+    try (Analyzer analyzer = new Analyzer()) {
+      analyzer.setJar(jarFile);
+      analyzer.addBasicPlugin(new ECMBndAnalyzerPlugin());
+      return analyzer.calcManifest();
+    }
+  }
+
+  @Benchmark
+  public List<ComponentData> processComponentClasses(final AnalyzedJar analyzedJar)
+      throws Exception {
+    return ComponentClassProcessing.process(analyzedJar.analyzer, analyzedJar.componentClasses);
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    jarFile = new SyntheticJarGenerator()
+        .withComponentCount(componentCount)
+        .withInheritanceDepth(inheritanceDepth)
+        .withLocalized(localized)
+        .withServiceDeclaration(serviceDeclaration)
+        .generate();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    jarFile.delete();
+  }
+}
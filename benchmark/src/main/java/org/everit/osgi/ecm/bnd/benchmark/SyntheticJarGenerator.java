@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates jars with synthetic ECM component classes. The annotations are written directly into
+ * the class files, so the ECM annotation library does not have to be on the classpath.
+ */
+public class SyntheticJarGenerator {
+
+  /**
+   * The way the components declare their services.
+   */
+  public enum ServiceDeclaration {
+
+    /**
+     * The components are annotated with <code>@Service</code> without values, so all interfaces
+     * of the type hierarchy have to be resolved.
+     */
+    ALL_INTERFACES,
+
+    /**
+     * The components are annotated with <code>@Service</code> and <code>@ManualServices</code>
+     * that list the interfaces explicitly.
+     */
+    EXPLICIT,
+
+    /**
+     * The components do not provide services.
+     */
+    NONE
+  }
+
+  private static final String COMPONENT_ANNOTATION =
+      "Lorg/everit/osgi/ecm/annotation/Component;";
+
+  private static final String LOCALIZATION_PATH = "OSGI-INF/metatype/metatype.properties";
+
+  private static final String MANUAL_SERVICE_ANNOTATION =
+      "Lorg/everit/osgi/ecm/annotation/ManualService;";
+
+  private static final String MANUAL_SERVICES_ANNOTATION =
+      "Lorg/everit/osgi/ecm/annotation/ManualServices;";
+
+  private static final String OBJECT = "java/lang/Object";
+
+  private static final String PACKAGE = "org/everit/osgi/ecm/bnd/benchmark/synthetic/";
+
+  private static final String SERVICE_ANNOTATION = "Lorg/everit/osgi/ecm/annotation/Service;";
+
+  private int componentCount = 100;
+
+  private int inheritanceDepth = 3;
+
+  private boolean localized = true;
+
+  private ServiceDeclaration serviceDeclaration = ServiceDeclaration.ALL_INTERFACES;
+
+  private void addDefaultConstructor(final ClassWriter cw, final String superName) {
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  private void addEntry(final JarOutputStream out, final String name, final byte[] content)
+      throws IOException {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(content);
+    out.closeEntry();
+  }
+
+  private void addInterfaceArray(final AnnotationVisitor av, final String... interfaceNames) {
+    AnnotationVisitor arrayVisitor = av.visitArray("value");
+    for (String interfaceName : interfaceNames) {
+      arrayVisitor.visit(null, Type.getObjectType(interfaceName));
+    }
+    arrayVisitor.visitEnd();
+  }
+
+  private String baseClassName(final int level) {
+    return PACKAGE + "Base" + level;
+  }
+
+  /**
+   * Generates a jar into a temporary file.
+   *
+   * @return The generated jar. The caller is responsible for deleting it.
+   * @throws IOException
+   *           if the jar cannot be written.
+   */
+  public File generate() throws IOException {
+    File file = File.createTempFile("ecm-benchmark", ".jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < inheritanceDepth; i++) {
+        addEntry(out, interfaceName(i) + ".class", generateInterface(i));
+        addEntry(out, baseClassName(i) + ".class", generateBaseClass(i));
+      }
+      for (int i = 0; i < componentCount; i++) {
+        addEntry(out, PACKAGE + "Component" + i + ".class", generateComponentClass(i));
+      }
+      if (localized) {
+        addEntry(out, LOCALIZATION_PATH, generateLocalization());
+      }
+    } catch (IOException | RuntimeException e) {
+      file.delete();
+      throw e;
+    }
+    return file;
+  }
+
+  private byte[] generateBaseClass(final int level) {
+    String superName = (level == 0) ? OBJECT : baseClassName(level - 1);
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_SUPER,
+        baseClassName(level), null, superName, new String[] { interfaceName(level) });
+    addDefaultConstructor(cw, superName);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private byte[] generateComponentClass(final int index) {
+    String className = PACKAGE + "Component" + index;
+    String superName = (inheritanceDepth == 0) ? OBJECT : baseClassName(inheritanceDepth - 1);
+
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, superName,
+        new String[] { "java/io/Serializable" });
+
+    AnnotationVisitor componentVisitor = cw.visitAnnotation(COMPONENT_ANNOTATION, false);
+    componentVisitor.visit("componentId", "component" + index);
+    if (localized) {
+      componentVisitor.visit("label", "%component" + index + ".label");
+      componentVisitor.visit("description", "%component" + index + ".description");
+    } else {
+      componentVisitor.visit("label", "Component " + index);
+    }
+    componentVisitor.visitEnd();
+
+    if (serviceDeclaration == ServiceDeclaration.ALL_INTERFACES) {
+      cw.visitAnnotation(SERVICE_ANNOTATION, false).visitEnd();
+    } else if (serviceDeclaration == ServiceDeclaration.EXPLICIT) {
+      AnnotationVisitor serviceVisitor = cw.visitAnnotation(SERVICE_ANNOTATION, false);
+      addInterfaceArray(serviceVisitor, "java/io/Serializable");
+      serviceVisitor.visitEnd();
+
+      AnnotationVisitor manualServicesVisitor =
+          cw.visitAnnotation(MANUAL_SERVICES_ANNOTATION, false);
+      AnnotationVisitor arrayVisitor = manualServicesVisitor.visitArray("value");
+      for (int i = 0; i < inheritanceDepth; i++) {
+        AnnotationVisitor manualServiceVisitor =
+            arrayVisitor.visitAnnotation(null, MANUAL_SERVICE_ANNOTATION);
+        addInterfaceArray(manualServiceVisitor, interfaceName(i), "java/io/Serializable");
+        manualServiceVisitor.visitEnd();
+      }
+      arrayVisitor.visitEnd();
+      manualServicesVisitor.visitEnd();
+    }
+
+    addDefaultConstructor(cw, superName);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private byte[] generateInterface(final int level) {
+    ClassWriter cw = new ClassWriter(0);
+    cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+        interfaceName(level), null, OBJECT, null);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private byte[] generateLocalization() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < componentCount; i++) {
+      sb.append("component").append(i).append(".label=Localized component ").append(i)
+          .append('\n');
+      sb.append("component").append(i).append(".description=Description of component ")
+          .append(i).append('\n');
+    }
+    return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private String interfaceName(final int level) {
+    return PACKAGE + "Service" + level;
+  }
+
+  public SyntheticJarGenerator withComponentCount(final int componentCount) {
+    this.componentCount = componentCount;
+    return this;
+  }
+
+  public SyntheticJarGenerator withInheritanceDepth(final int inheritanceDepth) {
+    this.inheritanceDepth = inheritanceDepth;
+    return this;
+  }
+
+  public SyntheticJarGenerator withLocalized(final boolean localized) {
+    this.localized = localized;
+    return this;
+  }
+
+  public SyntheticJarGenerator withServiceDeclaration(
+      final ServiceDeclaration serviceDeclaration) {
+    this.serviceDeclaration = serviceDeclaration;
+    return this;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The members of an ECM component class that the container calls when it instantiates, configures
+ * and activates the component. With the exact signatures the runtime can look up these members
+ * directly instead of scanning the methods of the class reflectively.
+ */
+public class AccessorData {
+
+  /**
+   * The name and the descriptor of a method.
+   */
+  public static final class MethodSignature {
+
+    private final String descriptor;
+
+    private final String name;
+
+    public MethodSignature(final String name, final String descriptor) {
+      this.name = name;
+      this.descriptor = descriptor;
+    }
+
+    /**
+     * The descriptor of the method as it appears in the class file, e.g.
+     * <code>(Ljava/lang/String;)V</code>.
+     */
+    public String getDescriptor() {
+      return descriptor;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private final Map<String, MethodSignature> lifecycleMethods = new LinkedHashMap<>();
+
+  private boolean publicConstructor;
+
+  private final Map<String, MethodSignature> setters = new LinkedHashMap<>();
+
+  /**
+   * The methods that are annotated with Activate, Deactivate or Update, by the
+   * <code>activate</code>, <code>deactivate</code> and <code>update</code> keys.
+   */
+  public Map<String, MethodSignature> getLifecycleMethods() {
+    return lifecycleMethods;
+  }
+
+  /**
+   * The setter methods of the attributes and references by the attribute and reference ids. The
+   * setters that are inherited from a superclass are not included.
+   */
+  public Map<String, MethodSignature> getSetters() {
+    return setters;
+  }
+
+  /**
+   * Whether the component class has a public constructor without parameters.
+   */
+  public boolean isPublicConstructor() {
+    return publicConstructor;
+  }
+
+  public void setPublicConstructor(final boolean publicConstructor) {
+    this.publicConstructor = publicConstructor;
+  }
+
+}
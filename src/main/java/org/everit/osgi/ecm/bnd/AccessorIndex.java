@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the members of the ECM component classes of a bundle that the container calls when it
+ * instantiates, configures and activates the components. The runtime can look up the listed
+ * methods by their exact signatures, e.g. with <code>MethodHandles.Lookup</code>, instead of
+ * scanning every component class reflectively. Members that are not listed (e.g. inherited
+ * setters) must still be found the reflective way.
+ *
+ * <p>
+ * Format (UTF-8 text):
+ *
+ * <pre>
+ * ecm-accessors 1
+ * c &lt;component id&gt; &lt;class name&gt; &lt;public no-arg constructor: y|n&gt;
+ * l &lt;activate|deactivate|update&gt; &lt;method name&gt; &lt;method descriptor&gt;
+ * s &lt;attribute or reference id&gt; &lt;method name&gt; &lt;method descriptor&gt;
+ * ...
+ * </pre>
+ *
+ * The <code>l</code> and <code>s</code> lines belong to the preceding <code>c</code> line. The
+ * whitespace and <code>%</code> characters of the fields are escaped as the <code>%XX</code>
+ * encoded bytes of their UTF-8 form, e.g. the component id <code>My Component</code> is written as
+ * <code>My%20Component</code>.
+ */
+public final class AccessorIndex {
+
+  /**
+   * The path of the index within the bundle if the instruction does not specify a path.
+   */
+  public static final String DEFAULT_PATH = "OSGI-INF/ecm/accessors.txt";
+
+  private static final String COMPONENT = "c";
+
+  private static final String HEADER = "ecm-accessors 1";
+
+  private static final String LIFECYCLE_METHOD = "l";
+
+  private static final String NO = "n";
+
+  private static final String SETTER = "s";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String YES = "y";
+
+  /**
+   * Reads an index.
+   *
+   * @param in
+   *          The stream of the index, it is not closed by this method.
+   * @return The components with their ids, class names and accessors in the order they were
+   *         written.
+   * @throws IOException
+   *           if the index cannot be read or its format is not supported.
+   */
+  public static List<ComponentData> read(final InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    String line = reader.readLine();
+    if (!HEADER.equals(line)) {
+      throw new IOException("Unsupported accessor index header: " + line);
+    }
+    List<ComponentData> result = new ArrayList<>();
+    AccessorData accessorData = null;
+    line = reader.readLine();
+    while (line != null) {
+      if (!line.isEmpty()) {
+        String[] parts = line.split(" ");
+        for (int i = 1; i < parts.length; i++) {
+          parts[i] = TextIndexFields.unescape(parts[i]);
+        }
+        if (parts.length != 4 || (accessorData == null && !COMPONENT.equals(parts[0]))) {
+          throw new IOException("Invalid accessor index line: " + line);
+        }
+        if (COMPONENT.equals(parts[0])) {
+          ComponentData componentData = new ComponentData();
+          componentData.setComponentId(parts[1]);
+          componentData.setClassName(parts[2]);
+          accessorData = new AccessorData();
+          accessorData.setPublicConstructor(YES.equals(parts[3]));
+          componentData.setAccessor(accessorData);
+          result.add(componentData);
+        } else if (LIFECYCLE_METHOD.equals(parts[0])) {
+          accessorData.getLifecycleMethods().put(parts[1],
+              new AccessorData.MethodSignature(parts[2], parts[3]));
+        } else if (SETTER.equals(parts[0])) {
+          accessorData.getSetters().put(parts[1],
+              new AccessorData.MethodSignature(parts[2], parts[3]));
+        } else {
+          throw new IOException("Invalid accessor index line: " + line);
+        }
+      }
+      line = reader.readLine();
+    }
+    return result;
+  }
+
+  /**
+   * Writes the index of the components that have accessor data.
+   */
+  public static byte[] write(final Collection<ComponentData> components) {
+    StringBuilder sb = new StringBuilder(HEADER).append('\n');
+    for (ComponentData componentData : components) {
+      AccessorData accessorData = componentData.getAccessor();
+      if (accessorData == null) {
+        continue;
+      }
+      sb.append(COMPONENT).append(' ')
+          .append(TextIndexFields.escape(componentData.getComponentId())).append(' ')
+          .append(TextIndexFields.escape(componentData.getClassName())).append(' ')
+          .append(accessorData.isPublicConstructor() ? YES : NO).append('\n');
+      writeMethods(sb, LIFECYCLE_METHOD, accessorData.getLifecycleMethods());
+      writeMethods(sb, SETTER, accessorData.getSetters());
+    }
+    return sb.toString().getBytes(UTF_8);
+  }
+
+  private static void writeMethods(final StringBuilder sb, final String lineType,
+      final Map<String, AccessorData.MethodSignature> methods) {
+    for (Map.Entry<String, AccessorData.MethodSignature> method : methods.entrySet()) {
+      sb.append(lineType).append(' ').append(TextIndexFields.escape(method.getKey())).append(' ')
+          .append(TextIndexFields.escape(method.getValue().getName())).append(' ')
+          .append(TextIndexFields.escape(method.getValue().getDescriptor())).append('\n');
+    }
+  }
+
+  private AccessorIndex() {
+  }
+}
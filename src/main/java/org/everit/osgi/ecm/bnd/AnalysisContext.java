@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.Closeable;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.version.Version;
+
+/**
+ * The state that is shared by the processing of all component classes during one
+ * {@link ECMBndAnalyzerPlugin#analyzeJar(Analyzer)} call.
+ */
+class AnalysisContext implements Closeable {
+
+  private final Analyzer analyzer;
+
+  private Version bundleVersion;
+
+  private final ComponentDataCache componentDataCache;
+
+  private final LocalizationCache localizationCache;
+
+  private final AnalysisStatistics statistics;
+
+  private final StereotypeResolver stereotypeResolver;
+
+  private final TypeHierarchyIndex typeHierarchyIndex;
+
+  AnalysisContext(final Analyzer analyzer, final ComponentDataCache componentDataCache,
+      final TypeLookupCache typeLookupCache, final AnalysisStatistics statistics) {
+    this.analyzer = analyzer;
+    this.componentDataCache = componentDataCache;
+    this.statistics = statistics;
+    this.localizationCache = new LocalizationCache(analyzer.getJar(), statistics);
+    this.typeHierarchyIndex = new TypeHierarchyIndex(analyzer, typeLookupCache, statistics);
+    this.stereotypeResolver = StereotypeResolver.create(analyzer, statistics);
+  }
+
+  @Override
+  public void close() {
+    localizationCache.close();
+  }
+
+  public Analyzer getAnalyzer() {
+    return analyzer;
+  }
+
+  /**
+   * The version of the bundle that is used by the components that do not declare a version. The
+   * version is parsed only once per analysis.
+   */
+  public Version getBundleVersion() {
+    if (bundleVersion == null) {
+      bundleVersion = new Version(analyzer.getVersion());
+    }
+    return bundleVersion;
+  }
+
+  /**
+   * The cache of the collected component data or <code>null</code> if caching is not enabled.
+   */
+  public ComponentDataCache getComponentDataCache() {
+    return componentDataCache;
+  }
+
+  public LocalizationCache getLocalizationCache() {
+    return localizationCache;
+  }
+
+  public AnalysisStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * The resolver of the stereotype annotations or <code>null</code> if the
+   * {@link ECMInstructions#STEREOTYPES} instruction is not specified.
+   */
+  public StereotypeResolver getStereotypeResolver() {
+    return stereotypeResolver;
+  }
+
+  public TypeHierarchyIndex getTypeHierarchyIndex() {
+    return typeHierarchyIndex;
+  }
+}
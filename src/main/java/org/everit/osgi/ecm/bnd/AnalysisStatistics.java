@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and per-phase timers of one
+ * {@link ECMBndAnalyzerPlugin#analyzeJar(aQute.bnd.osgi.Analyzer)} call. The instance can be used
+ * from several threads at the same time. If the statistics are disabled, nothing is measured and
+ * {@link #start()} does not even read the clock.
+ */
+class AnalysisStatistics {
+
+  /**
+   * The counted events.
+   */
+  enum Counter {
+
+    CACHE_HITS("cacheHits"),
+
+    CLASSES_EXCLUDED("classesExcluded"),
+
+    CLASSES_SCANNED("classesScanned"),
+
+    COMPONENTS_FOUND("componentsFound"),
+
+    FIND_CLASS_CALLS("findClassCalls"),
+
+    PROPERTIES_LOADS("propertiesLoads"),
+
+    STEREOTYPES_RESOLVED("stereotypesResolved"),
+
+    TYPE_CACHE_HITS("typeCacheHits"),
+
+    TYPE_SUMMARY_HITS("typeSummaryHits");
+
+    private final String jsonName;
+
+    Counter(final String jsonName) {
+      this.jsonName = jsonName;
+    }
+  }
+
+  /**
+   * The measured phases. The time of a phase is summed up over all threads. The time of
+   * {@link #CLASS_PARSING} includes the time of {@link #HIERARCHY_RESOLUTION}, as it happens while
+   * the annotations of a class are processed. The labels and descriptions are resolved only when
+   * the outputs are written, so the time of {@link #LOCALIZATION} is included in the phase that
+   * writes the first output that uses them, usually {@link #HEADER_SERIALIZATION}.
+   */
+  enum Phase {
+
+    CLASS_PARSING("classParsing"),
+
+    CLASS_QUERY("classQuery"),
+
+    DEPENDENCY_GRAPH("dependencyGraph"),
+
+    HEADER_SERIALIZATION("headerSerialization"),
+
+    HIERARCHY_RESOLUTION("hierarchyResolution"),
+
+    LOCALIZATION("localization"),
+
+    VALIDATION("validation");
+
+    private final String jsonName;
+
+    Phase(final String jsonName) {
+      this.jsonName = jsonName;
+    }
+  }
+
+  private static final int NANOS_PER_MILLI = 1000000;
+
+  private final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+
+  private final boolean enabled;
+
+  private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+
+  AnalysisStatistics(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public void add(final Counter counter, final long delta) {
+    if (enabled) {
+      counts.addAndGet(counter.ordinal(), delta);
+    }
+  }
+
+  public long getCount(final Counter counter) {
+    return counts.get(counter.ordinal());
+  }
+
+  public long getNanos(final Phase phase) {
+    return nanos.get(phase.ordinal());
+  }
+
+  public void increment(final Counter counter) {
+    add(counter, 1);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts measuring a phase.
+   *
+   * @return The value that must be passed to {@link #stop(Phase, long)}.
+   */
+  public long start() {
+    if (enabled) {
+      return System.nanoTime();
+    }
+    return 0;
+  }
+
+  /**
+   * Adds the time that elapsed since {@link #start()} to a phase.
+   */
+  public void stop(final Phase phase, final long startNanos) {
+    if (enabled) {
+      nanos.addAndGet(phase.ordinal(), System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Writes the statistics as a JSON object. The phase times are in nanoseconds.
+   *
+   * @param bundleSymbolicName
+   *          The symbolic name of the analyzed bundle or <code>null</code> if it is not known.
+   */
+  public String toJSON(final String bundleSymbolicName) {
+    StringBuilder sb = new StringBuilder("{\n");
+    if (bundleSymbolicName != null) {
+      sb.append("  \"bundleSymbolicName\": \"");
+      for (int i = 0, n = bundleSymbolicName.length(); i < n; i++) {
+        char c = bundleSymbolicName.charAt(i);
+        if (c == '"' || c == '\\') {
+          sb.append('\\').append(c);
+        } else if (c < ' ') {
+          sb.append(String.format("\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+      sb.append("\",\n");
+    }
+    sb.append("  \"counters\": {");
+    Counter[] counters = Counter.values();
+    for (int i = 0; i < counters.length; i++) {
+      sb.append(i == 0 ? "\n" : ",\n").append("    \"").append(counters[i].jsonName)
+          .append("\": ").append(getCount(counters[i]));
+    }
+    sb.append("\n  },\n  \"phaseNanos\": {");
+    Phase[] phases = Phase.values();
+    for (int i = 0; i < phases.length; i++) {
+      sb.append(i == 0 ? "\n" : ",\n").append("    \"").append(phases[i].jsonName)
+          .append("\": ").append(getNanos(phases[i]));
+    }
+    return sb.append("\n  }\n}\n").toString();
+  }
+
+  /**
+   * A single line summary of the statistics with the phase times in milliseconds.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Counter counter : Counter.values()) {
+      sb.append(counter.jsonName).append('=').append(getCount(counter)).append(", ");
+    }
+    for (Phase phase : Phase.values()) {
+      sb.append(phase.jsonName).append('=')
+          .append(String.format(Locale.ENGLISH, "%.3f", (double) getNanos(phase) / NANOS_PER_MILLI))
+          .append("ms, ");
+    }
+    sb.setLength(sb.length() - 2);
+    return sb.toString();
+  }
+}
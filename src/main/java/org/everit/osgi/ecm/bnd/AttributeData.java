@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The data of a configuration attribute of an ECM component that is necessary to generate the
+ * attribute definition of the MetaType descriptor.
+ */
+public class AttributeData {
+
+  private String attributeId;
+
+  private List<String> defaultValues = new ArrayList<>();
+
+  private String description;
+
+  private String label;
+
+  private boolean multiple;
+
+  private boolean optional;
+
+  private String type;
+
+  public String getAttributeId() {
+    return attributeId;
+  }
+
+  public List<String> getDefaultValues() {
+    return defaultValues;
+  }
+
+  /**
+   * The description of the attribute as it is specified in the annotation. Values that start with
+   * <code>%</code> are localized by the MetaType service.
+   *
+   * @return The description or <code>null</code> if the attribute does not have one.
+   */
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * The label of the attribute as it is specified in the annotation. Values that start with
+   * <code>%</code> are localized by the MetaType service.
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * The MetaType type of the attribute, e.g. <code>String</code> or <code>Integer</code>.
+   */
+  public String getType() {
+    return type;
+  }
+
+  public boolean isMultiple() {
+    return multiple;
+  }
+
+  public boolean isOptional() {
+    return optional;
+  }
+
+  public void setAttributeId(final String attributeId) {
+    this.attributeId = attributeId;
+  }
+
+  public void setDefaultValues(final List<String> defaultValues) {
+    this.defaultValues = defaultValues;
+  }
+
+  public void setDescription(final String description) {
+    this.description = description;
+  }
+
+  public void setLabel(final String label) {
+    this.label = label;
+  }
+
+  public void setMultiple(final boolean multiple) {
+    this.multiple = multiple;
+  }
+
+  public void setOptional(final boolean optional) {
+    this.optional = optional;
+  }
+
+  public void setType(final String type) {
+    this.type = type;
+  }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.OSGiHeader;
+
+/**
+ * Writes the Provide-Capability clauses of ECM components directly into a buffer. The output is
+ * the same as if the clauses were built with {@link aQute.bnd.header.Attrs} and
+ * {@link aQute.bnd.header.Parameters}, but no intermediate objects are created.
+ */
+class CapabilityHeaderWriter {
+
+  /**
+   * The names of the attributes of the component capabilities that can be left out.
+   */
+  public static final Set<String> OPTIONAL_COMPONENT_ATTRIBUTES =
+      Collections.unmodifiableSet(new HashSet<>(Arrays.asList("description", "label")));
+
+  /**
+   * The estimated length of a component clause without the values of the attributes that have
+   * variable length. Also includes a version with a short qualifier. The label and the
+   * description are not counted, as they are resolved only when they are written.
+   */
+  private static final int ESTIMATED_COMPONENT_CLAUSE_LENGTH = 128;
+
+  /**
+   * The estimated length of a service clause without the component id and the interfaces.
+   */
+  private static final int ESTIMATED_SERVICE_CLAUSE_LENGTH = 160;
+
+  /**
+   * The estimated length of a service property attribute without its name and values.
+   */
+  private static final int ESTIMATED_SERVICE_PROPERTY_LENGTH = 16;
+
+  private static final String TYPE_LIST_STRING = "List<String>";
+
+  private static final String TYPE_VERSION = "Version";
+
+  private final boolean compact;
+
+  private final Set<String> componentAttributes;
+
+  private final StringBuilder sb;
+
+  /**
+   * The interface sets of the <code>osgi.service</code> clauses that are already written in the
+   * compact mode, together with the written service property attributes of the clauses.
+   */
+  private final Set<Map.Entry<Set<String>, String>> writtenServices = new HashSet<>();
+
+  /**
+   * Constructor.
+   *
+   * @param sb
+   *          The buffer that the clauses are appended to. If the buffer is not empty, the first
+   *          clause is separated by a comma from the existing content.
+   */
+  CapabilityHeaderWriter(final StringBuilder sb) {
+    this(sb, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param sb
+   *          The buffer that the clauses are appended to. If the buffer is not empty, the first
+   *          clause is separated by a comma from the existing content.
+   * @param compact
+   *          Whether only the attributes that are necessary for resolution are written. In the
+   *          compact mode the component clauses do not have label and description, the
+   *          <code>osgi.service</code> clauses contain only the <code>objectClass</code> attribute
+   *          and the static service properties, and every set of interfaces with the same
+   *          properties is written only once.
+   */
+  CapabilityHeaderWriter(final StringBuilder sb, final boolean compact) {
+    this(sb, compact, OPTIONAL_COMPONENT_ATTRIBUTES);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param sb
+   *          The buffer that the clauses are appended to. If the buffer is not empty, the first
+   *          clause is separated by a comma from the existing content.
+   * @param compact
+   *          Whether only the attributes that are necessary for resolution are written.
+   * @param componentAttributes
+   *          The optional attributes of the component clauses that are written if the mode is not
+   *          compact. See {@link #OPTIONAL_COMPONENT_ATTRIBUTES}.
+   */
+  CapabilityHeaderWriter(final StringBuilder sb, final boolean compact,
+      final Set<String> componentAttributes) {
+    this.sb = sb;
+    this.compact = compact;
+    this.componentAttributes = componentAttributes;
+  }
+
+  private void attribute(final String key, final String value) {
+    sb.append(';').append(key).append('=');
+    quote(value);
+  }
+
+  private void clause(final String namespace) {
+    if (sb.length() > 0) {
+      sb.append(',');
+    }
+    sb.append(namespace);
+  }
+
+  /**
+   * Estimates the length of the header that is generated from the passed components, so the
+   * buffer does not have to grow while the header is written.
+   *
+   * @param components
+   *          The data of the components.
+   * @return The estimated length of the header.
+   */
+  public static int estimateLength(final Collection<ComponentData> components) {
+    int result = 0;
+    for (ComponentData componentData : components) {
+      int componentIdLength = componentData.getComponentId().length();
+      result += ESTIMATED_COMPONENT_CLAUSE_LENGTH + componentIdLength
+          + componentData.getClassName().length();
+      int servicePropertiesLength = 0;
+      for (ServicePropertyData servicePropertyData : componentData.getServiceProperties()) {
+        servicePropertiesLength += ESTIMATED_SERVICE_PROPERTY_LENGTH;
+        if (servicePropertyData.getName() != null) {
+          servicePropertiesLength += servicePropertyData.getName().length();
+        }
+        for (String value : servicePropertyData.getValues()) {
+          servicePropertiesLength += value.length() + 1;
+        }
+      }
+      for (Collection<String> serviceInterfaces : componentData.getServicesWithInterfaces()) {
+        result += ESTIMATED_SERVICE_CLAUSE_LENGTH + componentIdLength + servicePropertiesLength;
+        for (String serviceInterface : serviceInterfaces) {
+          result += serviceInterface.length() + 1;
+        }
+      }
+    }
+    return result;
+  }
+
+  private void quote(final String value) {
+    try {
+      OSGiHeader.quote(sb, value);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void typedAttribute(final String key, final String type, final String value) {
+    sb.append(';').append(key).append(':').append(type).append('=');
+    quote(value);
+  }
+
+  /**
+   * Writes the <code>org.everit.osgi.ecm.component</code> capability and the
+   * <code>osgi.service</code> capabilities of a component.
+   *
+   * @param componentData
+   *          The data of the component.
+   */
+  public void write(final ComponentData componentData) {
+    writeComponentCapability(componentData);
+    writeOSGiServiceCapabilities(componentData);
+  }
+
+  /**
+   * Writes the capabilities of components grouped by namespace: first the
+   * <code>org.everit.osgi.ecm.component</code> capabilities of all components, then their
+   * <code>osgi.service</code> capabilities. If the components and their interface sets are sorted,
+   * the output is canonical.
+   *
+   * @param components
+   *          The data of the components.
+   */
+  public void writeByNamespace(final Collection<ComponentData> components) {
+    for (ComponentData componentData : components) {
+      writeComponentCapability(componentData);
+    }
+    for (ComponentData componentData : components) {
+      writeOSGiServiceCapabilities(componentData);
+    }
+  }
+
+  /**
+   * Writes a clause that is already available as {@link Attrs}.
+   *
+   * @param namespace
+   *          The namespace of the capability.
+   * @param attrs
+   *          The attributes and directives of the capability.
+   */
+  public void writeClause(final String namespace, final Attrs attrs) {
+    clause(namespace);
+    if (!attrs.isEmpty()) {
+      sb.append(';');
+      attrs.append(sb);
+    }
+  }
+
+  private void writeComponentCapability(final ComponentData componentData) {
+    clause("org.everit.osgi.ecm.component");
+    attribute("componentId", componentData.getComponentId());
+    typedAttribute("version", TYPE_VERSION, componentData.getVersion().toString());
+    attribute("class", componentData.getClassName());
+    if (compact) {
+      return;
+    }
+    if (componentAttributes.contains("label")) {
+      attribute("label", componentData.getLabel());
+    }
+    if (componentAttributes.contains("description")) {
+      String description = componentData.getDescription();
+      if (description != null) {
+        attribute("description", description);
+      }
+    }
+  }
+
+  private void writeOSGiServiceCapabilities(final ComponentData componentData) {
+    String componentId = componentData.getComponentId();
+    String version = componentData.getVersion().toString();
+    StringBuilder interfacesSB = new StringBuilder();
+    for (Collection<String> serviceInterfaces : componentData.getServicesWithInterfaces()) {
+      interfacesSB.setLength(0);
+      for (String serviceInterface : serviceInterfaces) {
+        if (interfacesSB.length() > 0) {
+          interfacesSB.append(',');
+        }
+        interfacesSB.append(serviceInterface);
+      }
+
+      int clauseStart = sb.length();
+      clause("osgi.service");
+      typedAttribute("objectClass", TYPE_LIST_STRING, interfacesSB.toString());
+      if (!compact) {
+        attribute("org.everit.osgi.ecm.component.id", componentId);
+        typedAttribute("org.everit.osgi.ecm.component.version", TYPE_VERSION, version);
+      }
+      int servicePropertiesStart = sb.length();
+      writeServiceProperties(componentData.getServicePropertiesOf(serviceInterfaces));
+      if (compact && !writtenServices.add(new AbstractMap.SimpleImmutableEntry<Set<String>, String>(
+          new HashSet<String>(serviceInterfaces), sb.substring(servicePropertiesStart)))) {
+        sb.setLength(clauseStart);
+      }
+    }
+  }
+
+  private void writeServiceProperties(final List<ServicePropertyData> serviceProperties) {
+    for (ServicePropertyData servicePropertyData : serviceProperties) {
+      String attributeType = servicePropertyData.getAttributeType();
+      if (ServicePropertyData.TYPE_STRING.equals(attributeType)) {
+        attribute(servicePropertyData.getName(), servicePropertyData.getAttributeValue());
+      } else {
+        typedAttribute(servicePropertyData.getName(), attributeType,
+            servicePropertyData.getAttributeValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.RetentionPolicy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Annotation;
+import aQute.bnd.osgi.ClassDataCollector;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+
+/**
+ * Lightweight class file reader that passes only the structure and the annotations of a class to
+ * a {@link ClassDataCollector}. Unlike {@link Clazz#parseClassFileWithCollector(ClassDataCollector)}
+ * it skips the bytecode of the methods and all other attributes, it does not collect references
+ * and it does not modify the state of the {@link Clazz}.
+ *
+ * <p>
+ * The collector is notified in the same order and with the same kind of values as during the
+ * parsing of bnd: {@link ClassDataCollector#classStart(Clazz)},
+ * {@link ClassDataCollector#extendsClass(TypeRef)},
+ * {@link ClassDataCollector#implementsInterfaces(TypeRef[])}, the fields and methods with their
+ * annotations, {@link ClassDataCollector#memberEnd()}, the annotations of the class and
+ * {@link ClassDataCollector#classEnd()}.
+ *
+ * <p>
+ * The instance must be used by the thread that analyzes the jar, as the type references are
+ * created by the {@link Analyzer}, whose registries are not thread-safe.
+ */
+class ClassAnnotationScanner {
+
+  private static final int CONSTANT_CLASS = 7;
+
+  private static final int CONSTANT_DOUBLE = 6;
+
+  private static final int CONSTANT_DYNAMIC = 17;
+
+  private static final int CONSTANT_FIELDREF = 9;
+
+  private static final int CONSTANT_FLOAT = 4;
+
+  private static final int CONSTANT_INTEGER = 3;
+
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+  private static final int CONSTANT_LONG = 5;
+
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+
+  private static final int CONSTANT_METHOD_TYPE = 16;
+
+  private static final int CONSTANT_METHODREF = 10;
+
+  private static final int CONSTANT_MODULE = 19;
+
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private static final int CONSTANT_PACKAGE = 20;
+
+  private static final int CONSTANT_STRING = 8;
+
+  private static final int CONSTANT_UTF8 = 1;
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  private final Analyzer analyzer;
+
+  private final ClassDataCollector classDataCollector;
+
+  private final Clazz clazz;
+
+  private int[] classNameIndexes;
+
+  private Object[] pool;
+
+  ClassAnnotationScanner(final Clazz clazz, final Analyzer analyzer,
+      final ClassDataCollector classDataCollector) {
+    this.clazz = clazz;
+    this.analyzer = analyzer;
+    this.classDataCollector = classDataCollector;
+  }
+
+  private String className(final int classIndex) {
+    return (String) pool[classNameIndexes[classIndex]];
+  }
+
+  private void readAnnotations(final DataInputStream in, final ElementType elementType,
+      final RetentionPolicy retentionPolicy) throws Exception {
+    int annotationCount = in.readUnsignedShort();
+    for (int i = 0; i < annotationCount; i++) {
+      classDataCollector.annotation(readAnnotation(in, elementType, retentionPolicy));
+    }
+  }
+
+  private Annotation readAnnotation(final DataInputStream in, final ElementType elementType,
+      final RetentionPolicy retentionPolicy) throws IOException {
+    TypeRef typeRef = analyzer.getTypeRef((String) pool[in.readUnsignedShort()]);
+    int elementCount = in.readUnsignedShort();
+    Map<String, Object> elements = null;
+    for (int i = 0; i < elementCount; i++) {
+      String elementName = (String) pool[in.readUnsignedShort()];
+      Object value = readElementValue(in, elementType, retentionPolicy);
+      if (elements == null) {
+        elements = new LinkedHashMap<>();
+      }
+      elements.put(elementName, value);
+    }
+    return new Annotation(typeRef, elements, elementType, retentionPolicy);
+  }
+
+  private void readAttributes(final DataInputStream in, final ElementType elementType)
+      throws Exception {
+    int attributeCount = in.readUnsignedShort();
+    for (int i = 0; i < attributeCount; i++) {
+      String attributeName = (String) pool[in.readUnsignedShort()];
+      int length = in.readInt();
+      if ("RuntimeVisibleAnnotations".equals(attributeName)) {
+        readAnnotations(in, elementType, RetentionPolicy.RUNTIME);
+      } else if ("RuntimeInvisibleAnnotations".equals(attributeName)) {
+        readAnnotations(in, elementType, RetentionPolicy.CLASS);
+      } else {
+        skip(in, length);
+      }
+    }
+  }
+
+  private void readConstantPool(final DataInputStream in) throws IOException {
+    int count = in.readUnsignedShort();
+    pool = new Object[count];
+    classNameIndexes = new int[count];
+    for (int i = 1; i < count; i++) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case CONSTANT_UTF8:
+          pool[i] = in.readUTF();
+          break;
+        case CONSTANT_INTEGER:
+          pool[i] = in.readInt();
+          break;
+        case CONSTANT_FLOAT:
+          pool[i] = in.readFloat();
+          break;
+        case CONSTANT_LONG:
+          pool[i] = in.readLong();
+          i++;
+          break;
+        case CONSTANT_DOUBLE:
+          pool[i] = in.readDouble();
+          i++;
+          break;
+        case CONSTANT_CLASS:
+          classNameIndexes[i] = in.readUnsignedShort();
+          break;
+        case CONSTANT_STRING:
+        case CONSTANT_METHOD_TYPE:
+        case CONSTANT_MODULE:
+        case CONSTANT_PACKAGE:
+          in.readUnsignedShort();
+          break;
+        case CONSTANT_METHOD_HANDLE:
+          in.readUnsignedByte();
+          in.readUnsignedShort();
+          break;
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACE_METHODREF:
+        case CONSTANT_NAME_AND_TYPE:
+        case CONSTANT_DYNAMIC:
+        case CONSTANT_INVOKE_DYNAMIC:
+          in.readInt();
+          break;
+        default:
+          throw new IOException("Invalid constant pool tag " + tag + " in " + clazz);
+      }
+    }
+  }
+
+  /**
+   * Reads an element value with the same representation as bnd: numeric and character constants
+   * as {@link Integer} (or the matching wrapper type), enums as the name of the constant, classes
+   * as {@link TypeRef}, nested annotations as {@link Annotation} and arrays as
+   * <code>Object[]</code>.
+   */
+  private Object readElementValue(final DataInputStream in, final ElementType elementType,
+      final RetentionPolicy retentionPolicy) throws IOException {
+    char tag = (char) in.readUnsignedByte();
+    switch (tag) {
+      case 'B':
+      case 'C':
+      case 'I':
+      case 'S':
+      case 'D':
+      case 'F':
+      case 'J':
+      case 's':
+        return pool[in.readUnsignedShort()];
+      case 'Z':
+        Object value = pool[in.readUnsignedShort()];
+        return value != null && !value.equals(0);
+      case 'e':
+        in.readUnsignedShort();
+        return pool[in.readUnsignedShort()];
+      case 'c':
+        return analyzer.getTypeRef((String) pool[in.readUnsignedShort()]);
+      case '@':
+        return readAnnotation(in, elementType, retentionPolicy);
+      case '[':
+        int valueCount = in.readUnsignedShort();
+        Object[] result = new Object[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+          result[i] = readElementValue(in, elementType, retentionPolicy);
+        }
+        return result;
+      default:
+        throw new IOException("Invalid annotation element value tag " + tag + " in " + clazz);
+    }
+  }
+
+  /**
+   * Reads the class file and notifies the collector.
+   *
+   * @param classBytes
+   *          The content of the class file.
+   * @throws Exception
+   *           if the class file is invalid or the collector throws an exception.
+   */
+  public void scan(final byte[] classBytes) throws Exception {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a class file: " + clazz);
+      }
+      in.readUnsignedShort();
+      in.readUnsignedShort();
+      readConstantPool(in);
+
+      in.readUnsignedShort();
+      in.readUnsignedShort();
+      if (!classDataCollector.classStart(clazz)) {
+        return;
+      }
+      try {
+        scanBody(in);
+      } finally {
+        classDataCollector.classEnd();
+      }
+    }
+  }
+
+  private void scanBody(final DataInputStream in) throws Exception {
+    int superClassIndex = in.readUnsignedShort();
+    if (superClassIndex != 0) {
+      classDataCollector.extendsClass(analyzer.getTypeRef(className(superClassIndex)));
+    }
+    int interfaceCount = in.readUnsignedShort();
+    if (interfaceCount > 0) {
+      TypeRef[] interfaces = new TypeRef[interfaceCount];
+      for (int i = 0; i < interfaceCount; i++) {
+        interfaces[i] = analyzer.getTypeRef(className(in.readUnsignedShort()));
+      }
+      classDataCollector.implementsInterfaces(interfaces);
+    }
+
+    int fieldCount = in.readUnsignedShort();
+    for (int i = 0; i < fieldCount; i++) {
+      int access = in.readUnsignedShort();
+      String name = (String) pool[in.readUnsignedShort()];
+      String descriptor = (String) pool[in.readUnsignedShort()];
+      classDataCollector.field(clazz.new FieldDef(access, name, descriptor));
+      readAttributes(in, ElementType.FIELD);
+    }
+
+    int methodCount = in.readUnsignedShort();
+    for (int i = 0; i < methodCount; i++) {
+      int access = in.readUnsignedShort();
+      String name = (String) pool[in.readUnsignedShort()];
+      String descriptor = (String) pool[in.readUnsignedShort()];
+      classDataCollector.method(clazz.new MethodDef(access, name, descriptor));
+      if ("<init>".equals(name)) {
+        readAttributes(in, ElementType.CONSTRUCTOR);
+      } else {
+        readAttributes(in, ElementType.METHOD);
+      }
+    }
+    classDataCollector.memberEnd();
+
+    readAttributes(in, ElementType.TYPE);
+  }
+
+  private void skip(final DataInputStream in, final int length) throws IOException {
+    int remaining = length;
+    while (remaining > 0) {
+      int skipped = in.skipBytes(remaining);
+      if (skipped <= 0) {
+        throw new IOException("Unexpected end of class file " + clazz);
+      }
+      remaining -= skipped;
+    }
+  }
+}
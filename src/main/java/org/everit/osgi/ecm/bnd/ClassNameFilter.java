@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Instruction;
+import aQute.bnd.osgi.Instructions;
+
+/**
+ * Decides based on the {@link ECMInstructions#INCLUDE} and {@link ECMInstructions#EXCLUDE}
+ * instructions whether a class is processed by the plugin. The patterns are matched against the
+ * fully qualified name of the class with the same syntax as the other bnd instructions, e.g.
+ * <code>com.example.*</code> matches the classes of the package and its subpackages. Within an
+ * instruction, the first matching pattern decides, so negated patterns must come first.
+ */
+class ClassNameFilter {
+
+  private final Instructions excludes;
+
+  private final Instructions includes;
+
+  ClassNameFilter(final Instructions includes, final Instructions excludes) {
+    this.includes = includes;
+    this.excludes = excludes;
+  }
+
+  /**
+   * Creates the filter of the instructions of an Analyzer.
+   *
+   * @return The filter or <code>null</code> if none of the instructions are specified.
+   */
+  static ClassNameFilter create(final Analyzer analyzer) {
+    Instructions includes = new Instructions(analyzer.getProperty(ECMInstructions.INCLUDE));
+    Instructions excludes = new Instructions(analyzer.getProperty(ECMInstructions.EXCLUDE));
+    if (includes.isEmpty() && excludes.isEmpty()) {
+      return null;
+    }
+    return new ClassNameFilter(includes, excludes);
+  }
+
+  /**
+   * Checks whether a class should be processed.
+   *
+   * @param className
+   *          The fully qualified name of the class.
+   * @return <code>true</code> if the class matches the includes (or there are no includes) and
+   *         does not match the excludes.
+   */
+  public boolean accepts(final String className) {
+    if (!includes.isEmpty()) {
+      Instruction include = includes.matcher(className);
+      if (include == null || include.isNegated()) {
+        return false;
+      }
+    }
+    Instruction exclude = excludes.matcher(className);
+    return exclude == null || exclude.isNegated();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.Properties;
+
+/**
+ * Resolves the label and the description of a component from the values of its Component
+ * annotation when they are first used, so the localization file is only read if one of them is
+ * written. The unresolved values are kept, so the {@link ComponentDataCache} can store them and
+ * resolve them again against the localization files of a later build.
+ */
+class ComponentAttributeResolver {
+
+  private static final String LOCALIZED_VALUE_PREFIX = "%";
+
+  private final String componentId;
+
+  private String description;
+
+  private boolean descriptionResolved = false;
+
+  private String label;
+
+  private boolean labelResolved = false;
+
+  private final String localizationBase;
+
+  private final LocalizationCache localizationCache;
+
+  private Properties localizationProperties = null;
+
+  private final String unresolvedDescription;
+
+  private final String unresolvedLabel;
+
+  /**
+   * Constructor.
+   *
+   * @param componentId
+   *          The id of the component that is used as the label if the annotation has none.
+   * @param unresolvedLabel
+   *          The label element of the annotation or <code>null</code>.
+   * @param unresolvedDescription
+   *          The description element of the annotation or <code>null</code>.
+   * @param localizationBase
+   *          The localization base of the component or a blank string if the component is not
+   *          localized.
+   * @param localizationCache
+   *          The localization files of the analyzed jar.
+   */
+  ComponentAttributeResolver(final String componentId, final String unresolvedLabel,
+      final String unresolvedDescription, final String localizationBase,
+      final LocalizationCache localizationCache) {
+    this.componentId = componentId;
+    this.unresolvedLabel = unresolvedLabel;
+    this.unresolvedDescription = unresolvedDescription;
+    this.localizationBase = localizationBase;
+    this.localizationCache = localizationCache;
+  }
+
+  /**
+   * The description of the component. The description is resolved on the first call.
+   *
+   * @return The description or <code>null</code> if the component does not have one.
+   */
+  public String getDescription() {
+    if (!descriptionResolved) {
+      description = resolve(unresolvedDescription, null);
+      descriptionResolved = true;
+    }
+    return description;
+  }
+
+  /**
+   * The label of the component. The label is resolved on the first call.
+   *
+   * @return The label, or the id of the component if the annotation does not specify one.
+   */
+  public String getLabel() {
+    if (!labelResolved) {
+      label = resolve(unresolvedLabel, componentId);
+      labelResolved = true;
+    }
+    return label;
+  }
+
+  public String getLocalizationBase() {
+    return localizationBase;
+  }
+
+  private Properties getLocalizationProperties() throws Exception {
+    if (localizationProperties != null) {
+      return localizationProperties;
+    }
+    if ("".equals(localizationBase.trim())) {
+      localizationProperties = new Properties();
+    } else {
+      localizationProperties = localizationCache.getProperties(localizationBase, null);
+    }
+    return localizationProperties;
+  }
+
+  public String getUnresolvedDescription() {
+    return unresolvedDescription;
+  }
+
+  public String getUnresolvedLabel() {
+    return unresolvedLabel;
+  }
+
+  private String resolve(final String value, final String defaultValue) {
+    if (value == null || "".equals(value.trim())) {
+      return defaultValue;
+    }
+    if (!value.startsWith(LOCALIZED_VALUE_PREFIX)) {
+      return value;
+    }
+    String key = value.substring(1);
+    try {
+      return getLocalizationProperties().getProperty(key, key);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
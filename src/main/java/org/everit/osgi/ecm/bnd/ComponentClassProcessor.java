@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * Collects the {@link ComponentData} of component classes. The instance must be used by the thread
+ * that analyzes the jar, as the type and descriptor registries of the {@link Analyzer} are not
+ * thread-safe.
+ */
+class ComponentClassProcessor {
+
+  private final AnalysisContext analysisContext;
+
+  private final Analyzer analyzer;
+
+  private final ComponentDataCache componentDataCache;
+
+  private final AnalysisStatistics statistics;
+
+  ComponentClassProcessor(final AnalysisContext analysisContext) {
+    this.analysisContext = analysisContext;
+    this.analyzer = analysisContext.getAnalyzer();
+    this.componentDataCache = analysisContext.getComponentDataCache();
+    this.statistics = analysisContext.getStatistics();
+  }
+
+  /**
+   * Collects the data of a component class from the cache or by scanning the annotations of the
+   * class file.
+   *
+   * @param clazz
+   *          The component class.
+   * @return The data of the component or <code>null</code> if the class turns out not to be a
+   *         component, e.g. because a stereotype candidate annotation of the class is not a
+   *         stereotype.
+   * @throws Exception
+   *           if the class file cannot be read or parsed.
+   */
+  public ComponentData process(final Clazz clazz) throws Exception {
+    ComponentData componentData = null;
+    if (componentDataCache != null) {
+      componentData = componentDataCache.get(clazz, analysisContext);
+    }
+    if (componentData != null) {
+      statistics.increment(AnalysisStatistics.Counter.CACHE_HITS);
+      return componentData;
+    }
+
+    byte[] classBytes = readClassBytes(clazz);
+    ECMClassDataCollector ecmClassDataCollector =
+        new ECMClassDataCollector(clazz, analysisContext);
+    long startNanos = statistics.start();
+    new ClassAnnotationScanner(clazz, analyzer, ecmClassDataCollector).scan(classBytes);
+    if (ecmClassDataCollector.getComponentId() != null) {
+      componentData = ecmClassDataCollector.getComponentData();
+    }
+    statistics.stop(AnalysisStatistics.Phase.CLASS_PARSING, startNanos);
+    if (componentData == null) {
+      return null;
+    }
+    if (componentDataCache != null) {
+      componentDataCache.put(clazz, ecmClassDataCollector);
+    }
+    return componentData;
+  }
+
+  private byte[] readClassBytes(final Clazz clazz) throws Exception {
+    Resource resource = analyzer.getJar().getResource(clazz.getAbsolutePath());
+    if (resource == null) {
+      throw new IllegalStateException("Cannot find class file " + clazz.getAbsolutePath());
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    try (InputStream in = resource.openInputStream()) {
+      int r = in.read(buffer);
+      while (r >= 0) {
+        out.write(buffer, 0, r);
+        r = in.read(buffer);
+      }
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import aQute.bnd.version.Version;
+
+/**
+ * The data of an ECM component class that is necessary to generate the MANIFEST headers.
+ */
+public class ComponentData {
+
+  private AccessorData accessor;
+
+  /**
+   * The resolver of the label and the description that is used on the first access if they are
+   * not set directly.
+   */
+  private ComponentAttributeResolver attributeResolver;
+
+  private String className;
+
+  private String componentId;
+
+  private Collection<String> declaredServiceInterfaces = new LinkedHashSet<>();
+
+  private String description;
+
+  private String label;
+
+  private Collection<Collection<String>> manualServicesWithInterfaces = new LinkedHashSet<>();
+
+  private MetatypeData metatype;
+
+  private Collection<ReferenceData> references = new ArrayList<>();
+
+  private List<ServicePropertyData> serviceProperties = new ArrayList<>();
+
+  private Collection<Collection<String>> servicesWithInterfaces = new LinkedHashSet<>();
+
+  private Collection<String> supertypeNames = Collections.emptySet();
+
+  private Collection<String> unresolvedSupertypeNames = Collections.emptySet();
+
+  private Version version;
+
+  /**
+   * The members of the component class that the container calls.
+   *
+   * @return The accessors or <code>null</code> if they are not known, e.g. because the data was
+   *         read from a component index.
+   */
+  public AccessorData getAccessor() {
+    return accessor;
+  }
+
+  public String getClassName() {
+    return className;
+  }
+
+  public String getComponentId() {
+    return componentId;
+  }
+
+  /**
+   * The interfaces that are listed explicitly in the Service annotations of the component. The
+   * component class must implement these interfaces.
+   */
+  public Collection<String> getDeclaredServiceInterfaces() {
+    return declaredServiceInterfaces;
+  }
+
+  /**
+   * The description of the component. If the data was collected from a class or read from the
+   * cache, the description is resolved only when it is used.
+   *
+   * @return The description or <code>null</code> if the component does not have one.
+   */
+  public String getDescription() {
+    if (description == null && attributeResolver != null) {
+      return attributeResolver.getDescription();
+    }
+    return description;
+  }
+
+  /**
+   * The label of the component. If the data was collected from a class or read from the cache,
+   * the label is resolved only when it is used.
+   *
+   * @return The label of the component.
+   */
+  public String getLabel() {
+    if (label == null && attributeResolver != null) {
+      return attributeResolver.getLabel();
+    }
+    return label;
+  }
+
+  /**
+   * The interface sets of the services that come only from ManualService annotations. These
+   * services are registered by the component itself, so their properties are not known.
+   */
+  public Collection<Collection<String>> getManualServicesWithInterfaces() {
+    return manualServicesWithInterfaces;
+  }
+
+  /**
+   * The configuration metadata of the component.
+   *
+   * @return The metadata or <code>null</code> if the component does not have configuration
+   *         attributes that appear in the MetaType descriptor.
+   */
+  public MetatypeData getMetatype() {
+    return metatype;
+  }
+
+  /**
+   * The service and bundle capability references of the component whose target is known at build
+   * time.
+   */
+  public Collection<ReferenceData> getReferences() {
+    return references;
+  }
+
+  /**
+   * The service properties of the component whose values are known at build time.
+   */
+  public List<ServicePropertyData> getServiceProperties() {
+    return serviceProperties;
+  }
+
+  /**
+   * The service properties that can be added as attributes to the <code>osgi.service</code>
+   * capability of a service of the component.
+   *
+   * @param serviceInterfaces
+   *          The interface set of the service.
+   * @return The properties or an empty list if the service is registered manually.
+   */
+  public List<ServicePropertyData> getServicePropertiesOf(
+      final Collection<String> serviceInterfaces) {
+    if (serviceProperties.isEmpty() || manualServicesWithInterfaces.contains(serviceInterfaces)) {
+      return Collections.emptyList();
+    }
+    List<ServicePropertyData> result = new ArrayList<>(serviceProperties.size());
+    for (ServicePropertyData servicePropertyData : serviceProperties) {
+      if (servicePropertyData.getCapabilityAttributeProblem() == null) {
+        result.add(servicePropertyData);
+      }
+    }
+    return result;
+  }
+
+  public Collection<Collection<String>> getServicesWithInterfaces() {
+    return servicesWithInterfaces;
+  }
+
+  /**
+   * The classes and interfaces that the component class extends or implements directly or
+   * indirectly, as far as they could be resolved. The hierarchy is only collected if the component
+   * provides services, so the services can be validated without resolving it again.
+   */
+  public Collection<String> getSupertypeNames() {
+    return supertypeNames;
+  }
+
+  /**
+   * The supertypes of the component class that could not be found during the collection. If
+   * there are any, the supertypes and the interfaces of the services might be incomplete.
+   */
+  public Collection<String> getUnresolvedSupertypeNames() {
+    return unresolvedSupertypeNames;
+  }
+
+  public Version getVersion() {
+    return version;
+  }
+
+  /**
+   * Resolves the lazily resolved attributes, so they are available after the analyzed jar is
+   * closed.
+   */
+  void resolveAttributes() {
+    if (attributeResolver != null) {
+      label = attributeResolver.getLabel();
+      description = attributeResolver.getDescription();
+      attributeResolver = null;
+    }
+  }
+
+  public void setAccessor(final AccessorData accessor) {
+    this.accessor = accessor;
+  }
+
+  void setAttributeResolver(final ComponentAttributeResolver attributeResolver) {
+    this.attributeResolver = attributeResolver;
+  }
+
+  public void setClassName(final String className) {
+    this.className = className;
+  }
+
+  public void setComponentId(final String componentId) {
+    this.componentId = componentId;
+  }
+
+  public void setDeclaredServiceInterfaces(final Collection<String> declaredServiceInterfaces) {
+    this.declaredServiceInterfaces = declaredServiceInterfaces;
+  }
+
+  public void setDescription(final String description) {
+    this.description = description;
+  }
+
+  public void setLabel(final String label) {
+    this.label = label;
+  }
+
+  public void setManualServicesWithInterfaces(
+      final Collection<Collection<String>> manualServicesWithInterfaces) {
+    this.manualServicesWithInterfaces = manualServicesWithInterfaces;
+  }
+
+  public void setMetatype(final MetatypeData metatype) {
+    this.metatype = metatype;
+  }
+
+  public void setReferences(final Collection<ReferenceData> references) {
+    this.references = references;
+  }
+
+  public void setServiceProperties(final List<ServicePropertyData> serviceProperties) {
+    this.serviceProperties = serviceProperties;
+  }
+
+  public void setServicesWithInterfaces(
+      final Collection<Collection<String>> servicesWithInterfaces) {
+    this.servicesWithInterfaces = servicesWithInterfaces;
+  }
+
+  public void setSupertypeNames(final Collection<String> supertypeNames) {
+    this.supertypeNames = supertypeNames;
+  }
+
+  public void setUnresolvedSupertypeNames(final Collection<String> unresolvedSupertypeNames) {
+    this.unresolvedSupertypeNames = unresolvedSupertypeNames;
+  }
+
+  public void setVersion(final Version version) {
+    this.version = version;
+  }
+
+}
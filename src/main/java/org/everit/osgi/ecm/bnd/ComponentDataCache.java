@@ -0,0 +1,556 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.bnd.osgi.Resource;
+import aQute.bnd.osgi.URLResource;
+import aQute.bnd.version.Version;
+
+/**
+ * File system based cache of {@link ComponentData} that survives between builds. Every entry is
+ * stored in a properties file that is named after the SHA-1 digest of the component class. An
+ * entry is used only if the digests of all resources that were read during its collection
+ * (supertypes, stereotypes) are still the same and it was collected with the same stereotype
+ * patterns. The label and the description are stored as they are specified in the annotation and
+ * resolved from the localization files of the current build only when they are used.
+ */
+class ComponentDataCache {
+
+  private static final String ABSENT_DIGEST = "-";
+
+  private static final String FORMAT = "11";
+
+  private static final String KEY_ACCESSOR_PREFIX = "accessor.";
+
+  private static final String KEY_ATTRIBUTE_COUNT = "attributeCount";
+
+  private static final String KEY_ATTRIBUTE_PREFIX = "attribute.";
+
+  private static final String KEY_CLASS = "class";
+
+  private static final String KEY_COMPONENT_ID = "componentId";
+
+  private static final String KEY_DECLARED_SERVICE_INTERFACES = "declaredServiceInterfaces";
+
+  private static final String KEY_DEPENDENCY_COUNT = "dependencyCount";
+
+  private static final String KEY_DEPENDENCY_DIGEST_PREFIX = "dependencyDigest.";
+
+  private static final String KEY_DEPENDENCY_PATH_PREFIX = "dependencyPath.";
+
+  private static final String KEY_DESCRIPTION = "description";
+
+  private static final String KEY_FORMAT = "format";
+
+  private static final String KEY_LABEL = "label";
+
+  private static final String KEY_LOCALIZATION_BASE = "localizationBase";
+
+  private static final String KEY_MANUAL_SERVICE_COUNT = "manualServiceCount";
+
+  private static final String KEY_MANUAL_SERVICE_PREFIX = "manualService.";
+
+  private static final String KEY_METATYPE_PREFIX = "metatype.";
+
+  private static final String KEY_REFERENCE_COUNT = "referenceCount";
+
+  private static final String KEY_REFERENCE_PREFIX = "reference.";
+
+  private static final String KEY_SERVICE_COUNT = "serviceCount";
+
+  private static final String KEY_SERVICE_PREFIX = "service.";
+
+  private static final String KEY_SERVICE_PROPERTY_COUNT = "servicePropertyCount";
+
+  private static final String KEY_SERVICE_PROPERTY_PREFIX = "serviceProperty.";
+
+  private static final String KEY_STEREOTYPES = "stereotypes";
+
+  private static final String KEY_SUPERTYPES = "supertypes";
+
+  private static final String KEY_UNRESOLVED_SUPERTYPES = "unresolvedSupertypes";
+
+  private static final String KEY_VERSION = "version";
+
+  private final Analyzer analyzer;
+
+  private final File directory;
+
+  private final Map<String, String> digestsByPath = new HashMap<>();
+
+  /**
+   * The value of the {@link ECMInstructions#STEREOTYPES} instruction. The entries that were
+   * collected with different stereotype patterns are not used, as the patterns decide which
+   * annotations of a class are processed.
+   */
+  private final String stereotypes;
+
+  ComponentDataCache(final File directory, final Analyzer analyzer) {
+    this.directory = directory;
+    this.analyzer = analyzer;
+    String stereotypes = analyzer.getProperty(ECMInstructions.STEREOTYPES);
+    this.stereotypes = (stereotypes == null) ? "" : stereotypes.trim();
+  }
+
+  private boolean dependenciesUnchanged(final Properties entry) throws Exception {
+    int dependencyCount = Integer.parseInt(entry.getProperty(KEY_DEPENDENCY_COUNT));
+    for (int i = 0; i < dependencyCount; i++) {
+      String path = entry.getProperty(KEY_DEPENDENCY_PATH_PREFIX + i);
+      String digest = entry.getProperty(KEY_DEPENDENCY_DIGEST_PREFIX + i);
+      if (!digestOfPath(path).equals(digest)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String digest(final Resource resource) throws Exception {
+    MessageDigest messageDigest;
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] buffer = new byte[4096];
+    try (InputStream in = resource.openInputStream()) {
+      int r = in.read(buffer);
+      while (r >= 0) {
+        messageDigest.update(buffer, 0, r);
+        r = in.read(buffer);
+      }
+    }
+    byte[] digest = messageDigest.digest();
+    return Digests.toHex(digest);
+  }
+
+  private String digestOfPath(final String path) throws Exception {
+    String result = digestsByPath.get(path);
+    if (result != null) {
+      return result;
+    }
+    Resource resource = findResource(path);
+    if (resource == null) {
+      result = ABSENT_DIGEST;
+    } else {
+      result = digest(resource);
+    }
+    digestsByPath.put(path, result);
+    return result;
+  }
+
+  private File entryFile(final String classDigest) {
+    return new File(directory, classDigest + ".properties");
+  }
+
+  /**
+   * Finds a resource in the same order as {@link Analyzer#findClass(TypeRef)} does: the analyzed
+   * jar, the classpath and finally the system classloader.
+   */
+  private Resource findResource(final String path) {
+    Resource resource = analyzer.getJar().getResource(path);
+    if (resource != null) {
+      return resource;
+    }
+    resource = analyzer.findResource(path);
+    if (resource != null) {
+      return resource;
+    }
+    URL url = ClassLoader.getSystemResource(path);
+    if (url != null) {
+      return new URLResource(url);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the cached data of a component class.
+   *
+   * @param clazz
+   *          The component class.
+   * @param analysisContext
+   *          The context of the analysis that provides the version of the bundle, which is used if
+   *          the component does not declare a version, and the localization files.
+   * @return The cached data or <code>null</code> if there is no valid entry for the class.
+   */
+  public ComponentData get(final Clazz clazz, final AnalysisContext analysisContext) {
+    try {
+      File entryFile = entryFile(digestOfPath(clazz.getClassName().getPath()));
+      if (!entryFile.exists()) {
+        return null;
+      }
+      Properties entry = new Properties();
+      try (InputStream in = new FileInputStream(entryFile)) {
+        entry.load(in);
+      }
+      if (!FORMAT.equals(entry.getProperty(KEY_FORMAT))
+          || !clazz.getFQN().equals(entry.getProperty(KEY_CLASS))
+          || !stereotypes.equals(entry.getProperty(KEY_STEREOTYPES))
+          || !dependenciesUnchanged(entry)) {
+        return null;
+      }
+      return readComponentData(entry, analysisContext);
+    } catch (Exception e) {
+      analyzer.warning("Cannot read ECM cache entry of class %s: %s", clazz.getFQN(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the data that was collected from a component class.
+   *
+   * @param clazz
+   *          The component class.
+   * @param ecmClassDataCollector
+   *          The collector that processed the class.
+   */
+  public void put(final Clazz clazz, final ECMClassDataCollector ecmClassDataCollector) {
+    try {
+      Properties entry = new Properties();
+      entry.setProperty(KEY_FORMAT, FORMAT);
+      entry.setProperty(KEY_CLASS, clazz.getFQN());
+      entry.setProperty(KEY_STEREOTYPES, stereotypes);
+      entry.setProperty(KEY_COMPONENT_ID, ecmClassDataCollector.getComponentId());
+      // The label and the description are stored unresolved, so the localization file is only
+      // read if they are written
+      ComponentAttributeResolver attributeResolver = ecmClassDataCollector.getAttributeResolver();
+      setOptionalProperty(entry, KEY_LABEL, attributeResolver.getUnresolvedLabel());
+      setOptionalProperty(entry, KEY_DESCRIPTION, attributeResolver.getUnresolvedDescription());
+      entry.setProperty(KEY_LOCALIZATION_BASE, attributeResolver.getLocalizationBase());
+      String declaredVersion = ecmClassDataCollector.getDeclaredVersion();
+      if (declaredVersion != null) {
+        entry.setProperty(KEY_VERSION, declaredVersion);
+      }
+
+      writeServicesWithInterfaces(entry, KEY_SERVICE_PREFIX, KEY_SERVICE_COUNT,
+          ecmClassDataCollector.getServicesWithInterfaces());
+      writeServicesWithInterfaces(entry, KEY_MANUAL_SERVICE_PREFIX, KEY_MANUAL_SERVICE_COUNT,
+          ecmClassDataCollector.getManualServicesWithInterfaces());
+
+      int servicePropertyIndex = 0;
+      for (ServicePropertyData servicePropertyData : ecmClassDataCollector
+          .getServiceProperties()) {
+        String prefix = KEY_SERVICE_PROPERTY_PREFIX + servicePropertyIndex + ".";
+        setOptionalProperty(entry, prefix + "name", servicePropertyData.getName());
+        entry.setProperty(prefix + "type", servicePropertyData.getType());
+        List<String> values = servicePropertyData.getValues();
+        entry.setProperty(prefix + "valueCount", String.valueOf(values.size()));
+        for (int i = 0; i < values.size(); i++) {
+          entry.setProperty(prefix + "value." + i, values.get(i));
+        }
+        servicePropertyIndex++;
+      }
+      entry.setProperty(KEY_SERVICE_PROPERTY_COUNT, String.valueOf(servicePropertyIndex));
+
+      writeNames(entry, KEY_DECLARED_SERVICE_INTERFACES,
+          ecmClassDataCollector.getDeclaredServiceInterfaces());
+      writeNames(entry, KEY_SUPERTYPES, ecmClassDataCollector.getSupertypeNames());
+      writeNames(entry, KEY_UNRESOLVED_SUPERTYPES,
+          ecmClassDataCollector.getUnresolvedSupertypeNames());
+
+      int referenceIndex = 0;
+      for (ReferenceData referenceData : ecmClassDataCollector.getReferences()) {
+        String prefix = KEY_REFERENCE_PREFIX + referenceIndex + ".";
+        entry.setProperty(prefix + "namespace", referenceData.getNamespace());
+        entry.setProperty(prefix + "referenceId", referenceData.getReferenceId());
+        if (referenceData.getInterfaceName() != null) {
+          entry.setProperty(prefix + "interface", referenceData.getInterfaceName());
+        }
+        entry.setProperty(prefix + "optional", String.valueOf(referenceData.isOptional()));
+        entry.setProperty(prefix + "multiple", String.valueOf(referenceData.isMultiple()));
+        referenceIndex++;
+      }
+      entry.setProperty(KEY_REFERENCE_COUNT, String.valueOf(referenceIndex));
+
+      writeAccessorData(entry, ecmClassDataCollector.getAccessorData());
+
+      MetatypeData metatypeData = ecmClassDataCollector.getMetatypeData();
+      if (metatypeData != null) {
+        writeMetatypeData(entry, metatypeData);
+      }
+
+      int dependencyIndex = 0;
+      for (String dependencyPath : ecmClassDataCollector.getDependencyPaths()) {
+        entry.setProperty(KEY_DEPENDENCY_PATH_PREFIX + dependencyIndex, dependencyPath);
+        entry.setProperty(KEY_DEPENDENCY_DIGEST_PREFIX + dependencyIndex,
+            digestOfPath(dependencyPath));
+        dependencyIndex++;
+      }
+      entry.setProperty(KEY_DEPENDENCY_COUNT, String.valueOf(dependencyIndex));
+
+      writeEntry(entryFile(digestOfPath(clazz.getClassName().getPath())), entry);
+    } catch (Exception e) {
+      analyzer.warning("Cannot write ECM cache entry of class %s: %s", clazz.getFQN(), e);
+    }
+  }
+
+  private AccessorData readAccessorData(final Properties entry) {
+    AccessorData accessorData = new AccessorData();
+    accessorData.setPublicConstructor(
+        Boolean.parseBoolean(entry.getProperty(KEY_ACCESSOR_PREFIX + "publicConstructor")));
+    readMethodSignatures(entry, KEY_ACCESSOR_PREFIX + "lifecycle.",
+        accessorData.getLifecycleMethods());
+    readMethodSignatures(entry, KEY_ACCESSOR_PREFIX + "setter.", accessorData.getSetters());
+    return accessorData;
+  }
+
+  private ComponentData readComponentData(final Properties entry,
+      final AnalysisContext analysisContext) {
+    ComponentData componentData = new ComponentData();
+    componentData.setClassName(entry.getProperty(KEY_CLASS));
+    String componentId = entry.getProperty(KEY_COMPONENT_ID);
+    componentData.setComponentId(componentId);
+    componentData.setAttributeResolver(new ComponentAttributeResolver(componentId,
+        entry.getProperty(KEY_LABEL), entry.getProperty(KEY_DESCRIPTION),
+        entry.getProperty(KEY_LOCALIZATION_BASE), analysisContext.getLocalizationCache()));
+
+    String declaredVersion = entry.getProperty(KEY_VERSION);
+    if (declaredVersion == null) {
+      componentData.setVersion(analysisContext.getBundleVersion());
+    } else {
+      componentData.setVersion(new Version(declaredVersion));
+    }
+
+    componentData.setServicesWithInterfaces(
+        readServicesWithInterfaces(entry, KEY_SERVICE_PREFIX, KEY_SERVICE_COUNT));
+    componentData.setManualServicesWithInterfaces(
+        readServicesWithInterfaces(entry, KEY_MANUAL_SERVICE_PREFIX, KEY_MANUAL_SERVICE_COUNT));
+
+    int servicePropertyCount = Integer.parseInt(entry.getProperty(KEY_SERVICE_PROPERTY_COUNT));
+    for (int i = 0; i < servicePropertyCount; i++) {
+      String prefix = KEY_SERVICE_PROPERTY_PREFIX + i + ".";
+      ServicePropertyData servicePropertyData = new ServicePropertyData();
+      servicePropertyData.setName(entry.getProperty(prefix + "name"));
+      servicePropertyData.setType(entry.getProperty(prefix + "type"));
+      int valueCount = Integer.parseInt(entry.getProperty(prefix + "valueCount"));
+      for (int j = 0; j < valueCount; j++) {
+        servicePropertyData.getValues().add(entry.getProperty(prefix + "value." + j));
+      }
+      componentData.getServiceProperties().add(servicePropertyData);
+    }
+
+    componentData.setDeclaredServiceInterfaces(readNames(entry, KEY_DECLARED_SERVICE_INTERFACES));
+    componentData.setSupertypeNames(readNames(entry, KEY_SUPERTYPES));
+    componentData.setUnresolvedSupertypeNames(readNames(entry, KEY_UNRESOLVED_SUPERTYPES));
+
+    int referenceCount = Integer.parseInt(entry.getProperty(KEY_REFERENCE_COUNT));
+    List<ReferenceData> references = new ArrayList<>(referenceCount);
+    for (int i = 0; i < referenceCount; i++) {
+      String prefix = KEY_REFERENCE_PREFIX + i + ".";
+      ReferenceData referenceData = new ReferenceData();
+      referenceData.setNamespace(entry.getProperty(prefix + "namespace"));
+      referenceData.setReferenceId(entry.getProperty(prefix + "referenceId"));
+      referenceData.setInterfaceName(entry.getProperty(prefix + "interface"));
+      referenceData.setOptional(Boolean.parseBoolean(entry.getProperty(prefix + "optional")));
+      referenceData.setMultiple(Boolean.parseBoolean(entry.getProperty(prefix + "multiple")));
+      references.add(referenceData);
+    }
+    componentData.setReferences(references);
+    componentData.setMetatype(readMetatypeData(entry));
+    componentData.setAccessor(readAccessorData(entry));
+    return componentData;
+  }
+
+  private MetatypeData readMetatypeData(final Properties entry) {
+    String attributeCount = entry.getProperty(KEY_ATTRIBUTE_COUNT);
+    if (attributeCount == null) {
+      return null;
+    }
+    MetatypeData metatypeData = new MetatypeData();
+    metatypeData.setLabel(entry.getProperty(KEY_METATYPE_PREFIX + "label"));
+    metatypeData.setDescription(entry.getProperty(KEY_METATYPE_PREFIX + "description"));
+    metatypeData
+        .setLocalizationBase(entry.getProperty(KEY_METATYPE_PREFIX + "localizationBase"));
+    metatypeData
+        .setFactory(Boolean.parseBoolean(entry.getProperty(KEY_METATYPE_PREFIX + "factory")));
+    metatypeData.setPid(entry.getProperty(KEY_METATYPE_PREFIX + "pid"));
+    for (int i = 0, n = Integer.parseInt(attributeCount); i < n; i++) {
+      String prefix = KEY_ATTRIBUTE_PREFIX + i + ".";
+      AttributeData attributeData = new AttributeData();
+      attributeData.setAttributeId(entry.getProperty(prefix + "attributeId"));
+      attributeData.setType(entry.getProperty(prefix + "type"));
+      attributeData.setLabel(entry.getProperty(prefix + "label"));
+      attributeData.setDescription(entry.getProperty(prefix + "description"));
+      int defaultValueCount = Integer.parseInt(entry.getProperty(prefix + "defaultValueCount"));
+      for (int j = 0; j < defaultValueCount; j++) {
+        attributeData.getDefaultValues().add(entry.getProperty(prefix + "defaultValue." + j));
+      }
+      attributeData.setOptional(Boolean.parseBoolean(entry.getProperty(prefix + "optional")));
+      attributeData.setMultiple(Boolean.parseBoolean(entry.getProperty(prefix + "multiple")));
+      metatypeData.getAttributes().add(attributeData);
+    }
+    return metatypeData;
+  }
+
+  /**
+   * Reads the method signatures that are stored as <code>&lt;name&gt; &lt;descriptor&gt;</code>
+   * under the keys with the prefix.
+   */
+  private void readMethodSignatures(final Properties entry, final String prefix,
+      final Map<String, AccessorData.MethodSignature> methods) {
+    int count = Integer.parseInt(entry.getProperty(prefix + "count"));
+    for (int i = 0; i < count; i++) {
+      String[] method = entry.getProperty(prefix + i + ".method").split(" ");
+      methods.put(entry.getProperty(prefix + i + ".key"),
+          new AccessorData.MethodSignature(method[0], method[1]));
+    }
+  }
+
+  /**
+   * Reads the names that are stored separated by commas under the key.
+   */
+  private Set<String> readNames(final Properties entry, final String key) {
+    String names = entry.getProperty(key);
+    if ("".equals(names)) {
+      return new LinkedHashSet<>();
+    }
+    return new LinkedHashSet<>(Arrays.asList(names.split(",")));
+  }
+
+  private Collection<Collection<String>> readServicesWithInterfaces(final Properties entry,
+      final String prefix, final String countKey) {
+    Collection<Collection<String>> result = new LinkedHashSet<>();
+    int serviceCount = Integer.parseInt(entry.getProperty(countKey));
+    for (int i = 0; i < serviceCount; i++) {
+      String[] interfaces = entry.getProperty(prefix + i).split(",");
+      Set<String> interfaceNames = new LinkedHashSet<>(Arrays.asList(interfaces));
+      result.add(interfaceNames);
+    }
+    return result;
+  }
+
+  private void setOptionalProperty(final Properties entry, final String key, final String value) {
+    if (value != null) {
+      entry.setProperty(key, value);
+    }
+  }
+
+  private void writeAccessorData(final Properties entry, final AccessorData accessorData) {
+    entry.setProperty(KEY_ACCESSOR_PREFIX + "publicConstructor",
+        String.valueOf(accessorData.isPublicConstructor()));
+    writeMethodSignatures(entry, KEY_ACCESSOR_PREFIX + "lifecycle.",
+        accessorData.getLifecycleMethods());
+    writeMethodSignatures(entry, KEY_ACCESSOR_PREFIX + "setter.", accessorData.getSetters());
+  }
+
+  private void writeEntry(final File entryFile, final Properties entry) throws IOException {
+    if (!directory.exists() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+    }
+    File tmpFile = File.createTempFile("entry", ".tmp", directory);
+    try {
+      try (OutputStream out = new FileOutputStream(tmpFile)) {
+        entry.store(out, null);
+      }
+      Files.move(tmpFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      if (tmpFile.exists()) {
+        tmpFile.delete();
+      }
+    }
+  }
+
+  private void writeMetatypeData(final Properties entry, final MetatypeData metatypeData) {
+    setOptionalProperty(entry, KEY_METATYPE_PREFIX + "label", metatypeData.getLabel());
+    setOptionalProperty(entry, KEY_METATYPE_PREFIX + "description",
+        metatypeData.getDescription());
+    setOptionalProperty(entry, KEY_METATYPE_PREFIX + "localizationBase",
+        metatypeData.getLocalizationBase());
+    entry.setProperty(KEY_METATYPE_PREFIX + "factory", String.valueOf(metatypeData.isFactory()));
+    entry.setProperty(KEY_METATYPE_PREFIX + "pid", metatypeData.getPid());
+    int attributeIndex = 0;
+    for (AttributeData attributeData : metatypeData.getAttributes()) {
+      String prefix = KEY_ATTRIBUTE_PREFIX + attributeIndex + ".";
+      entry.setProperty(prefix + "attributeId", attributeData.getAttributeId());
+      entry.setProperty(prefix + "type", attributeData.getType());
+      setOptionalProperty(entry, prefix + "label", attributeData.getLabel());
+      setOptionalProperty(entry, prefix + "description", attributeData.getDescription());
+      List<String> defaultValues = attributeData.getDefaultValues();
+      entry.setProperty(prefix + "defaultValueCount", String.valueOf(defaultValues.size()));
+      for (int i = 0; i < defaultValues.size(); i++) {
+        entry.setProperty(prefix + "defaultValue." + i, defaultValues.get(i));
+      }
+      entry.setProperty(prefix + "optional", String.valueOf(attributeData.isOptional()));
+      entry.setProperty(prefix + "multiple", String.valueOf(attributeData.isMultiple()));
+      attributeIndex++;
+    }
+    entry.setProperty(KEY_ATTRIBUTE_COUNT, String.valueOf(attributeIndex));
+  }
+
+  private void writeMethodSignatures(final Properties entry, final String prefix,
+      final Map<String, AccessorData.MethodSignature> methods) {
+    int index = 0;
+    for (Map.Entry<String, AccessorData.MethodSignature> method : methods.entrySet()) {
+      entry.setProperty(prefix + index + ".key", method.getKey());
+      entry.setProperty(prefix + index + ".method",
+          method.getValue().getName() + " " + method.getValue().getDescriptor());
+      index++;
+    }
+    entry.setProperty(prefix + "count", String.valueOf(index));
+  }
+
+  private void writeNames(final Properties entry, final String key,
+      final Collection<String> names) {
+    StringBuilder sb = new StringBuilder();
+    for (String name : names) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(name);
+    }
+    entry.setProperty(key, sb.toString());
+  }
+
+  private void writeServicesWithInterfaces(final Properties entry, final String prefix,
+      final String countKey, final Collection<Collection<String>> servicesWithInterfaces) {
+    int serviceIndex = 0;
+    for (Collection<String> serviceInterfaces : servicesWithInterfaces) {
+      StringBuilder sb = new StringBuilder();
+      for (String serviceInterface : serviceInterfaces) {
+        if (sb.length() > 0) {
+          sb.append(',');
+        }
+        sb.append(serviceInterface);
+      }
+      entry.setProperty(prefix + serviceIndex, sb.toString());
+      serviceIndex++;
+    }
+    entry.setProperty(countKey, String.valueOf(serviceIndex));
+  }
+}
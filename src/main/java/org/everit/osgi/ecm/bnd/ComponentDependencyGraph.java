@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The dependency graph of the ECM components of a bundle: which component requires a service that
+ * another component of the bundle provides. The components are grouped into activation levels:
+ * the components of a level depend only on components of lower levels, so a runtime can activate
+ * the components of a level in parallel. A mandatory reference is satisfied by any of the
+ * components that provide the referenced interface. References whose interface is not provided
+ * within the bundle and optional references do not affect the levels. The default filters of the
+ * references are not evaluated, as the configuration can change them.
+ *
+ * <p>
+ * Components whose mandatory references cannot be satisfied within the bundle, because they are
+ * part of or depend on a cycle, do not get a level. These components are listed as blocked, and
+ * the cycles are listed separately.
+ *
+ * <p>
+ * Format (UTF-8 text):
+ *
+ * <pre>
+ * ecm-dependency-graph 1
+ * l &lt;level&gt; &lt;component id&gt; ...
+ * b &lt;component id&gt; ...
+ * x &lt;component id&gt; ...
+ * d &lt;component id&gt; &lt;reference id&gt; &lt;provider component id&gt; &lt;m|o&gt;
+ * ...
+ * </pre>
+ *
+ * The <code>l</code> lines list the levels from 0, the <code>b</code> line the blocked components
+ * and every <code>x</code> line a cycle. Every <code>d</code> line is a dependency on a provider
+ * through a mandatory (<code>m</code>) or optional (<code>o</code>) reference. The whitespace and
+ * <code>%</code> characters of the ids are escaped as the <code>%XX</code> encoded bytes of their
+ * UTF-8 form, e.g. the component id <code>My Component</code> is written as
+ * <code>My%20Component</code>.
+ */
+public final class ComponentDependencyGraph {
+
+  /**
+   * A dependency of a component on another component of the bundle that provides the interface of
+   * one of its references.
+   */
+  public static final class Dependency {
+
+    private final String componentId;
+
+    private final boolean optional;
+
+    private final String providerComponentId;
+
+    private final String referenceId;
+
+    /**
+     * Constructor.
+     *
+     * @param componentId
+     *          The id of the component that has the reference.
+     * @param referenceId
+     *          The id of the reference.
+     * @param providerComponentId
+     *          The id of the component that provides the referenced interface.
+     * @param optional
+     *          Whether the reference is optional.
+     */
+    public Dependency(final String componentId, final String referenceId,
+        final String providerComponentId, final boolean optional) {
+      this.componentId = componentId;
+      this.referenceId = referenceId;
+      this.providerComponentId = providerComponentId;
+      this.optional = optional;
+    }
+
+    public String getComponentId() {
+      return componentId;
+    }
+
+    public String getProviderComponentId() {
+      return providerComponentId;
+    }
+
+    public String getReferenceId() {
+      return referenceId;
+    }
+
+    public boolean isOptional() {
+      return optional;
+    }
+  }
+
+  /**
+   * A mandatory reference of a component that is satisfied as soon as one of its providers gets
+   * a level.
+   */
+  private static final class MandatoryReference {
+
+    private final int owner;
+
+    private final List<Integer> providers = new ArrayList<>();
+
+    private boolean satisfied = false;
+
+    MandatoryReference(final int owner) {
+      this.owner = owner;
+    }
+  }
+
+  /**
+   * The path of the graph within the bundle if the instruction does not specify a path.
+   */
+  public static final String DEFAULT_PATH = "OSGI-INF/ecm/dependencies.txt";
+
+  private static final String HEADER = "ecm-dependency-graph 1";
+
+  private static final String LINE_BLOCKED = "b";
+
+  private static final String LINE_CYCLE = "x";
+
+  private static final String LINE_DEPENDENCY = "d";
+
+  private static final String LINE_LEVEL = "l";
+
+  private static final String MANDATORY = "m";
+
+  private static final String OPTIONAL = "o";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final Set<String> blockedComponentIds = new TreeSet<>();
+
+  private final List<List<String>> cycles = new ArrayList<>();
+
+  private final List<Dependency> dependencies = new ArrayList<>();
+
+  private final List<List<String>> levels = new ArrayList<>();
+
+  private ComponentDependencyGraph() {
+  }
+
+  /**
+   * Computes the dependency graph of components. The data of the components that have the same id
+   * is merged.
+   *
+   * @param components
+   *          The components of the bundle.
+   * @return The dependency graph.
+   */
+  public static ComponentDependencyGraph build(final Collection<ComponentData> components) {
+    Map<String, Integer> indexesByComponentId = new LinkedHashMap<>();
+    Map<String, List<Integer>> providersByInterface = new LinkedHashMap<>();
+    for (ComponentData componentData : components) {
+      Integer index = indexesByComponentId.get(componentData.getComponentId());
+      if (index == null) {
+        index = indexesByComponentId.size();
+        indexesByComponentId.put(componentData.getComponentId(), index);
+      }
+      for (Collection<String> serviceInterfaces : componentData.getServicesWithInterfaces()) {
+        for (String serviceInterface : serviceInterfaces) {
+          List<Integer> providers = providersByInterface.get(serviceInterface);
+          if (providers == null) {
+            providers = new ArrayList<>(1);
+            providersByInterface.put(serviceInterface, providers);
+          }
+          if (!providers.contains(index)) {
+            providers.add(index);
+          }
+        }
+      }
+    }
+    String[] componentIds =
+        indexesByComponentId.keySet().toArray(new String[indexesByComponentId.size()]);
+
+    ComponentDependencyGraph graph = new ComponentDependencyGraph();
+    List<List<MandatoryReference>> dependents = new ArrayList<>(componentIds.length);
+    List<List<MandatoryReference>> mandatoryReferences = new ArrayList<>(componentIds.length);
+    for (int i = 0; i < componentIds.length; i++) {
+      dependents.add(new ArrayList<MandatoryReference>());
+      mandatoryReferences.add(new ArrayList<MandatoryReference>());
+    }
+    for (ComponentData componentData : components) {
+      int index = indexesByComponentId.get(componentData.getComponentId());
+      for (ReferenceData referenceData : componentData.getReferences()) {
+        List<Integer> providers = (referenceData.getInterfaceName() == null) ? null
+            : providersByInterface.get(referenceData.getInterfaceName());
+        if (providers == null) {
+          continue;
+        }
+        MandatoryReference mandatoryReference = null;
+        if (!referenceData.isOptional()) {
+          mandatoryReference = new MandatoryReference(index);
+          mandatoryReferences.get(index).add(mandatoryReference);
+        }
+        for (Integer provider : providers) {
+          graph.dependencies.add(new Dependency(componentIds[index],
+              referenceData.getReferenceId(), componentIds[provider],
+              referenceData.isOptional()));
+          if (mandatoryReference != null) {
+            mandatoryReference.providers.add(provider);
+            dependents.get(provider).add(mandatoryReference);
+          }
+        }
+      }
+    }
+
+    // Breadth-first by level: a component gets the level after the one in which its last
+    // mandatory reference was satisfied
+    int[] unsatisfiedCounts = new int[componentIds.length];
+    boolean[] leveled = new boolean[componentIds.length];
+    List<Integer> currentLevel = new ArrayList<>();
+    for (int i = 0; i < componentIds.length; i++) {
+      unsatisfiedCounts[i] = mandatoryReferences.get(i).size();
+      if (unsatisfiedCounts[i] == 0) {
+        currentLevel.add(i);
+      }
+    }
+    while (!currentLevel.isEmpty()) {
+      List<String> levelComponentIds = new ArrayList<>(currentLevel.size());
+      List<Integer> nextLevel = new ArrayList<>();
+      for (Integer provider : currentLevel) {
+        leveled[provider] = true;
+        levelComponentIds.add(componentIds[provider]);
+        for (MandatoryReference mandatoryReference : dependents.get(provider)) {
+          if (!mandatoryReference.satisfied) {
+            mandatoryReference.satisfied = true;
+            unsatisfiedCounts[mandatoryReference.owner]--;
+            if (unsatisfiedCounts[mandatoryReference.owner] == 0) {
+              nextLevel.add(mandatoryReference.owner);
+            }
+          }
+        }
+      }
+      Collections.sort(levelComponentIds);
+      graph.levels.add(levelComponentIds);
+      currentLevel = nextLevel;
+    }
+
+    List<List<Integer>> blockingProviders = new ArrayList<>(componentIds.length);
+    for (int i = 0; i < componentIds.length; i++) {
+      Set<Integer> providers = new LinkedHashSet<>();
+      if (!leveled[i]) {
+        graph.blockedComponentIds.add(componentIds[i]);
+        for (MandatoryReference mandatoryReference : mandatoryReferences.get(i)) {
+          if (!mandatoryReference.satisfied) {
+            providers.addAll(mandatoryReference.providers);
+          }
+        }
+      }
+      blockingProviders.add(new ArrayList<>(providers));
+    }
+    graph.findCycles(componentIds, leveled, blockingProviders);
+
+    // The order of the output does not depend on the order of the components
+    Collections.sort(graph.dependencies, new Comparator<Dependency>() {
+      @Override
+      public int compare(final Dependency o1, final Dependency o2) {
+        int result = o1.getComponentId().compareTo(o2.getComponentId());
+        if (result == 0) {
+          result = o1.getReferenceId().compareTo(o2.getReferenceId());
+        }
+        if (result == 0) {
+          result = o1.getProviderComponentId().compareTo(o2.getProviderComponentId());
+        }
+        return result;
+      }
+    });
+    Collections.sort(graph.cycles, new Comparator<List<String>>() {
+      @Override
+      public int compare(final List<String> o1, final List<String> o2) {
+        return o1.get(0).compareTo(o2.get(0));
+      }
+    });
+    return graph;
+  }
+
+  /**
+   * Finds the strongly connected components among the blocked components with Tarjan's algorithm.
+   * The depth-first search uses an explicit stack, so long dependency chains do not overflow the
+   * stack of the thread.
+   */
+  private void findCycles(final String[] componentIds, final boolean[] leveled,
+      final List<List<Integer>> blockingProviders) {
+    int[] indexes = new int[componentIds.length];
+    int[] lowLinks = new int[componentIds.length];
+    Arrays.fill(indexes, -1);
+    boolean[] onStack = new boolean[componentIds.length];
+    Deque<Integer> stack = new ArrayDeque<>();
+    Deque<int[]> frames = new ArrayDeque<>();
+    int nextIndex = 0;
+    for (int root = 0; root < componentIds.length; root++) {
+      if (leveled[root] || indexes[root] >= 0) {
+        continue;
+      }
+      indexes[root] = nextIndex;
+      lowLinks[root] = nextIndex;
+      nextIndex++;
+      stack.push(root);
+      onStack[root] = true;
+      frames.push(new int[] { root, 0 });
+      while (!frames.isEmpty()) {
+        int[] frame = frames.peek();
+        int node = frame[0];
+        List<Integer> successors = blockingProviders.get(node);
+        if (frame[1] < successors.size()) {
+          int successor = successors.get(frame[1]);
+          frame[1]++;
+          if (indexes[successor] < 0) {
+            indexes[successor] = nextIndex;
+            lowLinks[successor] = nextIndex;
+            nextIndex++;
+            stack.push(successor);
+            onStack[successor] = true;
+            frames.push(new int[] { successor, 0 });
+          } else if (onStack[successor]) {
+            lowLinks[node] = Math.min(lowLinks[node], indexes[successor]);
+          }
+          continue;
+        }
+        frames.pop();
+        if (!frames.isEmpty()) {
+          int parent = frames.peek()[0];
+          lowLinks[parent] = Math.min(lowLinks[parent], lowLinks[node]);
+        }
+        if (lowLinks[node] == indexes[node]) {
+          List<String> stronglyConnected = new ArrayList<>();
+          int member;
+          do {
+            member = stack.pop();
+            onStack[member] = false;
+            stronglyConnected.add(componentIds[member]);
+          } while (member != node);
+          if (stronglyConnected.size() > 1 || successors.contains(node)) {
+            Collections.sort(stronglyConnected);
+            cycles.add(stronglyConnected);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The components that do not get a level, as they are part of a cycle or depend on a cycle.
+   */
+  public Set<String> getBlockedComponentIds() {
+    return blockedComponentIds;
+  }
+
+  /**
+   * The cycles of mandatory references. Every cycle contains the ids of the components that
+   * cannot be activated unless the referenced services are provided by other bundles, too.
+   */
+  public List<List<String>> getCycles() {
+    return cycles;
+  }
+
+  public List<Dependency> getDependencies() {
+    return dependencies;
+  }
+
+  /**
+   * The ids of the components by their activation level, starting from level 0.
+   */
+  public List<List<String>> getLevels() {
+    return levels;
+  }
+
+  /**
+   * Reads a graph.
+   *
+   * @param in
+   *          The stream of the graph, it is not closed by this method.
+   * @return The graph.
+   * @throws IOException
+   *           if the graph cannot be read or its format is not supported.
+   */
+  public static ComponentDependencyGraph read(final InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    String line = reader.readLine();
+    if (!HEADER.equals(line)) {
+      throw new IOException("Unsupported dependency graph header: " + line);
+    }
+    ComponentDependencyGraph graph = new ComponentDependencyGraph();
+    line = reader.readLine();
+    while (line != null) {
+      if (!line.isEmpty()) {
+        String[] parts = line.split(" ");
+        for (int i = 1; i < parts.length; i++) {
+          parts[i] = TextIndexFields.unescape(parts[i]);
+        }
+        if (LINE_LEVEL.equals(parts[0]) && parts.length > 2) {
+          graph.levels.add(Arrays.asList(parts).subList(2, parts.length));
+        } else if (LINE_BLOCKED.equals(parts[0])) {
+          graph.blockedComponentIds.addAll(Arrays.asList(parts).subList(1, parts.length));
+        } else if (LINE_CYCLE.equals(parts[0])) {
+          graph.cycles.add(Arrays.asList(parts).subList(1, parts.length));
+        } else if (LINE_DEPENDENCY.equals(parts[0]) && parts.length == 5) {
+          graph.dependencies
+              .add(new Dependency(parts[1], parts[2], parts[3], OPTIONAL.equals(parts[4])));
+        } else {
+          throw new IOException("Invalid dependency graph line: " + line);
+        }
+      }
+      line = reader.readLine();
+    }
+    return graph;
+  }
+
+  /**
+   * Writes the graph.
+   *
+   * @return The UTF-8 encoded content of the graph.
+   */
+  public byte[] write() {
+    StringBuilder sb = new StringBuilder(HEADER).append('\n');
+    for (int i = 0; i < levels.size(); i++) {
+      sb.append(LINE_LEVEL).append(' ').append(i);
+      writeIds(sb, levels.get(i));
+    }
+    if (!blockedComponentIds.isEmpty()) {
+      sb.append(LINE_BLOCKED);
+      writeIds(sb, blockedComponentIds);
+    }
+    for (List<String> cycle : cycles) {
+      sb.append(LINE_CYCLE);
+      writeIds(sb, cycle);
+    }
+    for (Dependency dependency : dependencies) {
+      sb.append(LINE_DEPENDENCY).append(' ')
+          .append(TextIndexFields.escape(dependency.getComponentId())).append(' ')
+          .append(TextIndexFields.escape(dependency.getReferenceId())).append(' ')
+          .append(TextIndexFields.escape(dependency.getProviderComponentId())).append(' ')
+          .append(dependency.isOptional() ? OPTIONAL : MANDATORY).append('\n');
+    }
+    return sb.toString().getBytes(UTF_8);
+  }
+
+  private void writeIds(final StringBuilder sb, final Collection<String> ids) {
+    for (String id : ids) {
+      sb.append(' ').append(TextIndexFields.escape(id));
+    }
+    sb.append('\n');
+  }
+}
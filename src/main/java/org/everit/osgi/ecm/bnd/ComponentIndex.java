@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import aQute.bnd.version.Version;
+
+/**
+ * Compact binary index of the ECM components of a bundle. The index can be read at runtime
+ * without parsing MANIFEST headers or loading the component classes, e.g. from a memory mapped
+ * {@link ByteBuffer}.
+ *
+ * <p>
+ * Format (all numbers are big-endian):
+ *
+ * <pre>
+ * int     magic (0x45434D49, "ECMI")
+ * short   format version (1)
+ * int     number of strings
+ *   int     length of the UTF-8 encoded string
+ *   byte[]  UTF-8 encoded string
+ * int     number of components
+ *   int     string index of the component id
+ *   int     string index of the class name
+ *   int     string index of the version
+ *   int     string index of the label
+ *   int     string index of the description or -1
+ *   int     number of services
+ *     int     number of interfaces
+ *     int[]   string indexes of the interfaces
+ * </pre>
+ *
+ * Every string is stored only once, so the names of interfaces that are provided by several
+ * components do not take extra space.
+ */
+public final class ComponentIndex {
+
+  /**
+   * The path of the index within the bundle if the instruction does not specify a path.
+   */
+  public static final String DEFAULT_PATH = "OSGI-INF/ecm/components.idx";
+
+  public static final short FORMAT_VERSION = 1;
+
+  public static final int MAGIC = 0x45434D49;
+
+  private static final int NO_STRING = -1;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static String readNullableString(final ByteBuffer buffer, final String[] strings) {
+    int index = buffer.getInt();
+    if (index == NO_STRING) {
+      return null;
+    }
+    return strings[index];
+  }
+
+  /**
+   * Reads the components from an index.
+   *
+   * @param buffer
+   *          The buffer that contains the index from its current position.
+   * @return The components in the order they were written.
+   * @throws IllegalArgumentException
+   *           if the buffer does not contain a valid index.
+   */
+  public static List<ComponentData> read(final ByteBuffer buffer) {
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Not an ECM component index");
+      }
+      short formatVersion = buffer.getShort();
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IllegalArgumentException(
+            "Unsupported ECM component index format: " + formatVersion);
+      }
+
+      String[] strings = new String[buffer.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        strings[i] = new String(bytes, UTF_8);
+      }
+
+      int componentCount = buffer.getInt();
+      List<ComponentData> result = new ArrayList<>(componentCount);
+      for (int i = 0; i < componentCount; i++) {
+        ComponentData componentData = new ComponentData();
+        componentData.setComponentId(strings[buffer.getInt()]);
+        componentData.setClassName(strings[buffer.getInt()]);
+        componentData.setVersion(new Version(strings[buffer.getInt()]));
+        componentData.setLabel(strings[buffer.getInt()]);
+        componentData.setDescription(readNullableString(buffer, strings));
+
+        Collection<Collection<String>> servicesWithInterfaces = new LinkedHashSet<>();
+        int serviceCount = buffer.getInt();
+        for (int j = 0; j < serviceCount; j++) {
+          Set<String> interfaceNames = new LinkedHashSet<>();
+          int interfaceCount = buffer.getInt();
+          for (int k = 0; k < interfaceCount; k++) {
+            interfaceNames.add(strings[buffer.getInt()]);
+          }
+          servicesWithInterfaces.add(interfaceNames);
+        }
+        componentData.setServicesWithInterfaces(servicesWithInterfaces);
+        result.add(componentData);
+      }
+      return result;
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Corrupt ECM component index", e);
+    }
+  }
+
+  /**
+   * Creates the index of the passed components.
+   *
+   * @param components
+   *          The components.
+   * @return The content of the index.
+   */
+  public static byte[] write(final List<ComponentData> components) {
+    Map<String, Integer> stringIndexes = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    for (ComponentData componentData : components) {
+      String description = componentData.getDescription();
+      String[] componentStrings = new String[] { componentData.getComponentId(),
+          componentData.getClassName(), componentData.getVersion().toString(),
+          componentData.getLabel(), description };
+      for (String componentString : componentStrings) {
+        if (componentString != null && !stringIndexes.containsKey(componentString)) {
+          stringIndexes.put(componentString, strings.size());
+          strings.add(componentString);
+        }
+      }
+      for (Collection<String> serviceInterfaces : componentData.getServicesWithInterfaces()) {
+        for (String serviceInterface : serviceInterfaces) {
+          if (!stringIndexes.containsKey(serviceInterface)) {
+            stringIndexes.put(serviceInterface, strings.size());
+            strings.add(serviceInterface);
+          }
+        }
+      }
+    }
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bout)) {
+      out.writeInt(MAGIC);
+      out.writeShort(FORMAT_VERSION);
+      out.writeInt(strings.size());
+      for (String string : strings) {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      out.writeInt(components.size());
+      for (ComponentData componentData : components) {
+        out.writeInt(stringIndexes.get(componentData.getComponentId()));
+        out.writeInt(stringIndexes.get(componentData.getClassName()));
+        out.writeInt(stringIndexes.get(componentData.getVersion().toString()));
+        out.writeInt(stringIndexes.get(componentData.getLabel()));
+        String description = componentData.getDescription();
+        out.writeInt((description == null) ? NO_STRING : stringIndexes.get(description));
+
+        Collection<Collection<String>> servicesWithInterfaces =
+            componentData.getServicesWithInterfaces();
+        out.writeInt(servicesWithInterfaces.size());
+        for (Collection<String> serviceInterfaces : servicesWithInterfaces) {
+          out.writeInt(serviceInterfaces.size());
+          for (String serviceInterface : serviceInterfaces) {
+            out.writeInt(stringIndexes.get(serviceInterface));
+          }
+        }
+      }
+    } catch (IOException e) {
+      // ByteArrayOutputStream does not throw IOException
+      throw new RuntimeException(e);
+    }
+    return bout.toByteArray();
+  }
+
+  private ComponentIndex() {
+  }
+}
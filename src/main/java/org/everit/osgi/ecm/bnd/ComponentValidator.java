@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aQute.bnd.osgi.Analyzer;
+
+/**
+ * Validates the collected data of the components of a jar and reports the problems as errors and
+ * warnings of the {@link Analyzer}. The validation works on the already collected data, which
+ * contains the resolved supertypes of the component classes, so the type hierarchies are not
+ * resolved again, not even for the components that come from the cache. The
+ * {@link TypeHierarchyIndex} of the analysis is only used to look up the service interfaces that
+ * are not implemented by the component class.
+ *
+ * <ul>
+ * <li>Error: the same component id is used by more than one class.</li>
+ * <li>Error: an interface of a Service annotation is not implemented by the component class. The
+ * interfaces of ManualService annotations are not checked, as the services are registered by the
+ * component itself.</li>
+ * <li>Warning: a service interface cannot be found in the jar or on its classpath.</li>
+ * <li>Warning: a supertype of a component class that provides services cannot be found, so the
+ * interfaces of the services might be incomplete.</li>
+ * <li>Warning: a static service property cannot be added to the <code>osgi.service</code>
+ * capabilities, e.g. because its value does not match its type.</li>
+ * <li>Warning: components have mandatory references on each other in a cycle (see
+ * {@link #validateDependencies(ComponentDependencyGraph)}).</li>
+ * </ul>
+ */
+class ComponentValidator {
+
+  private final Analyzer analyzer;
+
+  private final TypeHierarchyIndex typeHierarchyIndex;
+
+  ComponentValidator(final Analyzer analyzer, final TypeHierarchyIndex typeHierarchyIndex) {
+    this.analyzer = analyzer;
+    this.typeHierarchyIndex = typeHierarchyIndex;
+  }
+
+  /**
+   * Validates the components and reports the problems to the Analyzer.
+   *
+   * @param components
+   *          The collected data of the components of the jar.
+   */
+  public void validate(final Collection<ComponentData> components) {
+    Map<String, List<String>> classNamesByComponentId = new LinkedHashMap<>();
+    for (ComponentData componentData : components) {
+      List<String> classNames = classNamesByComponentId.get(componentData.getComponentId());
+      if (classNames == null) {
+        classNames = new ArrayList<>(1);
+        classNamesByComponentId.put(componentData.getComponentId(), classNames);
+      }
+      classNames.add(componentData.getClassName());
+      validateServiceProperties(componentData);
+      validateServices(componentData);
+    }
+
+    for (Map.Entry<String, List<String>> entry : classNamesByComponentId.entrySet()) {
+      if (entry.getValue().size() > 1) {
+        analyzer.error("ECM component id %s is used by more than one class: %s", entry.getKey(),
+            entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Reports the cycles of mandatory references between the components as warnings. The
+   * components of a cycle cannot be activated unless another bundle provides one of the
+   * referenced services.
+   *
+   * @param dependencyGraph
+   *          The dependency graph of the components of the jar.
+   */
+  public void validateDependencies(final ComponentDependencyGraph dependencyGraph) {
+    for (List<String> cycle : dependencyGraph.getCycles()) {
+      analyzer.warning("ECM components %s have mandatory references on each other in a cycle,"
+          + " so they can only be activated if another bundle provides one of the referenced"
+          + " services", cycle);
+    }
+  }
+
+  private void validateServiceProperties(final ComponentData componentData) {
+    for (ServicePropertyData servicePropertyData : componentData.getServiceProperties()) {
+      String problem = servicePropertyData.getCapabilityAttributeProblem();
+      if (problem != null) {
+        analyzer.warning("Service property %s of ECM component %s is not added to the"
+            + " osgi.service capabilities: %s", servicePropertyData.getName(),
+            componentData.getComponentId(), problem);
+      }
+    }
+  }
+
+  private void validateServices(final ComponentData componentData) {
+    Collection<Collection<String>> servicesWithInterfaces =
+        componentData.getServicesWithInterfaces();
+    if (servicesWithInterfaces.isEmpty()) {
+      return;
+    }
+    Collection<String> unresolvedSupertypeNames = componentData.getUnresolvedSupertypeNames();
+    if (!unresolvedSupertypeNames.isEmpty()) {
+      analyzer.warning("The service interfaces of ECM component %s might be incomplete, as the"
+          + " following supertypes of class %s cannot be found: %s",
+          componentData.getComponentId(), componentData.getClassName(),
+          unresolvedSupertypeNames);
+    }
+
+    for (String serviceInterface : componentData.getDeclaredServiceInterfaces()) {
+      if (componentData.getSupertypeNames().contains(serviceInterface)) {
+        continue;
+      }
+      if (!unresolvedSupertypeNames.isEmpty()) {
+        // The interface might be implemented by a supertype that cannot be found
+        continue;
+      }
+      if (typeHierarchyIndex.exists(analyzer.getTypeRefFromFQN(serviceInterface).getBinary())) {
+        analyzer.error("Service interface %s of ECM component %s is not implemented by"
+            + " class %s", serviceInterface, componentData.getComponentId(),
+            componentData.getClassName());
+      } else {
+        analyzer.warning("Service interface %s of ECM component %s cannot be found in the"
+            + " bundle or on its classpath", serviceInterface, componentData.getComponentId());
+      }
+    }
+  }
+}
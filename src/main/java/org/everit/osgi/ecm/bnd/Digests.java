@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper methods for the digests that identify the inputs and outputs of the analysis.
+ */
+final class Digests {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private Digests() {
+  }
+
+  /**
+   * Calculates the SHA-256 digest of a file, e.g. for the <code>osgi.content</code> capability of
+   * a bundle.
+   *
+   * @return The digest as a string of lowercase hexadecimal digits.
+   */
+  static String sha256(final File file) throws IOException {
+    MessageDigest messageDigest;
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] buffer = new byte[8192];
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      int r = in.read(buffer);
+      while (r >= 0) {
+        messageDigest.update(buffer, 0, r);
+        r = in.read(buffer);
+      }
+    }
+    return toHex(messageDigest.digest());
+  }
+
+  /**
+   * Encodes a digest as a string of lowercase hexadecimal digits.
+   */
+  static String toHex(final byte[] digest) {
+    char[] result = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      result[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+      result[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+    }
+    return new String(result);
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.version.Version;
+
+/**
+ * Runs the {@link ECMBndAnalyzerPlugin} on many jars concurrently in one JVM. The jars of the
+ * classpath are opened only once and shared by the Analyzers of all analyzed jars, and the
+ * supertype lookups are shared via the JVM wide lookup cache of the plugin.
+ *
+ * <p>
+ * The instance must be closed to release the jars of the classpath.
+ */
+public class ECMBatchAnalyzer implements Closeable {
+
+  /**
+   * The result of the analysis of one jar.
+   */
+  public static final class JarResult {
+
+    private String bundleSymbolicName;
+
+    private Version bundleVersion;
+
+    private String capabilityDigest;
+
+    private List<ComponentData> components = Collections.emptyList();
+
+    private final List<String> errors = new ArrayList<>();
+
+    private final File file;
+
+    private String provideCapability;
+
+    private String requireCapability;
+
+    private String sha256;
+
+    private long size;
+
+    private final List<String> warnings = new ArrayList<>();
+
+    JarResult(final File file) {
+      this.file = file;
+    }
+
+    public String getBundleSymbolicName() {
+      return bundleSymbolicName;
+    }
+
+    public Version getBundleVersion() {
+      return bundleVersion;
+    }
+
+    /**
+     * The digest of the generated capabilities if the {@link ECMInstructions#REPRODUCIBLE}
+     * instruction is enabled, otherwise <code>null</code>.
+     */
+    public String getCapabilityDigest() {
+      return capabilityDigest;
+    }
+
+    public List<ComponentData> getComponents() {
+      return components;
+    }
+
+    /**
+     * The errors of the Analyzer and the exception that stopped the analysis if there was one.
+     */
+    public List<String> getErrors() {
+      return errors;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * The Provide-Capability header of the jar after the generated capabilities were merged into
+     * the header of the original MANIFEST.
+     */
+    public String getProvideCapability() {
+      return provideCapability;
+    }
+
+    /**
+     * The Require-Capability header of the jar together with the generated requirements if the
+     * {@link ECMInstructions#REQUIREMENTS} instruction is enabled.
+     */
+    public String getRequireCapability() {
+      return requireCapability;
+    }
+
+    /**
+     * The hexadecimal SHA-256 digest of the jar.
+     */
+    public String getSha256() {
+      return sha256;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public List<String> getWarnings() {
+      return warnings;
+    }
+  }
+
+  private final List<Jar> classpath = new ArrayList<>();
+
+  private final Map<String, String> instructions;
+
+  private final int parallelism;
+
+  private final ECMBndAnalyzerPlugin plugin = new ECMBndAnalyzerPlugin();
+
+  /**
+   * Constructor.
+   *
+   * @param parallelism
+   *          The number of jars that are analyzed at the same time.
+   * @param instructions
+   *          The bnd instructions that are set on the Analyzer of every jar, e.g.
+   *          {@link ECMInstructions#CACHE}.
+   * @param classpath
+   *          The jars and directories where the supertypes of the component classes are
+   *          searched.
+   * @throws IOException
+   *           if a jar of the classpath cannot be opened.
+   */
+  public ECMBatchAnalyzer(final int parallelism, final Map<String, String> instructions,
+      final List<File> classpath) throws IOException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.instructions = new LinkedHashMap<>(instructions);
+    try {
+      for (File classpathEntry : classpath) {
+        this.classpath.add(new Jar(classpathEntry));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Analyzes the jars with the command line arguments
+   * <code>[-parallelism &lt;n&gt;] [-classpath &lt;path&gt;] [-index &lt;file&gt;]
+   * [-D&lt;instruction&gt;=&lt;value&gt;]... &lt;jar&gt;...</code>. Without <code>-index</code>,
+   * the Provide-Capability header of every jar is printed to the standard output, otherwise an
+   * OSGi repository index is written to the specified file.
+   *
+   * @param args
+   *          The command line arguments.
+   * @throws Exception
+   *           if the arguments are invalid or the analysis fails.
+   */
+  public static void main(final String[] args) throws Exception {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    List<File> classpath = new ArrayList<>();
+    File indexFile = null;
+    Map<String, String> instructions = new LinkedHashMap<>();
+    List<File> jars = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("-parallelism".equals(arg) && i + 1 < args.length) {
+        parallelism = Integer.parseInt(args[++i]);
+      } else if ("-classpath".equals(arg) && i + 1 < args.length) {
+        for (String classpathEntry : args[++i].split(File.pathSeparator)) {
+          classpath.add(new File(classpathEntry));
+        }
+      } else if ("-index".equals(arg) && i + 1 < args.length) {
+        indexFile = new File(args[++i]);
+      } else if (arg.startsWith("-D") && arg.indexOf('=') > 2) {
+        int separatorIndex = arg.indexOf('=');
+        instructions.put(arg.substring(2, separatorIndex), arg.substring(separatorIndex + 1));
+      } else {
+        jars.add(new File(arg));
+      }
+    }
+
+    List<JarResult> results;
+    try (ECMBatchAnalyzer batchAnalyzer =
+        new ECMBatchAnalyzer(parallelism, instructions, classpath)) {
+      results = batchAnalyzer.analyze(jars);
+    }
+
+    PrintStream out = System.out;
+    for (JarResult result : results) {
+      for (String error : result.getErrors()) {
+        System.err.println(result.getFile() + ": " + error);
+      }
+      if (indexFile == null) {
+        out.println(result.getFile() + ": " + result.getProvideCapability());
+      }
+    }
+    if (indexFile != null) {
+      try (Writer writer =
+          new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8)) {
+        writeRepositoryIndex(results, indexFile.getName(), writer);
+      }
+    }
+  }
+
+  /**
+   * Writes an OSGi repository index with the identity and content capabilities and the
+   * Provide-Capability and Require-Capability headers of the successfully analyzed jars. Every
+   * resource is written as soon as it is serialized, so the index is never kept in memory as a
+   * whole.
+   *
+   * @param results
+   *          The results of {@link #analyze(List)}.
+   * @param name
+   *          The name of the repository.
+   * @param writer
+   *          The writer of the index, it is not closed by this method.
+   * @throws IOException
+   *           if the index cannot be written.
+   */
+  public static void writeRepositoryIndex(final List<JarResult> results, final String name,
+      final Writer writer) throws IOException {
+    writer.write(RepositoryIndexWriter.repositoryStart(name, System.currentTimeMillis()));
+    StringBuilder sb = new StringBuilder();
+    RepositoryIndexWriter repositoryIndexWriter = new RepositoryIndexWriter(sb);
+    for (JarResult result : results) {
+      if (result.getBundleSymbolicName() == null || result.getSha256() == null) {
+        continue;
+      }
+      sb.setLength(0);
+      repositoryIndexWriter.resourceStart();
+      repositoryIndexWriter.writeIdentityCapability(result.getBundleSymbolicName(),
+          result.getBundleVersion());
+      repositoryIndexWriter.writeContentCapability(result.getSha256(),
+          result.getFile().toURI().toString(), result.getSize());
+      repositoryIndexWriter.writeCapabilities(result.getProvideCapability());
+      repositoryIndexWriter.writeRequirements(result.getRequireCapability());
+      repositoryIndexWriter.resourceEnd();
+      writer.append(sb);
+    }
+    writer.write(RepositoryIndexWriter.repositoryEnd());
+  }
+
+  /**
+   * Analyzes jars on a bounded fork-join pool.
+   *
+   * @param jars
+   *          The jars to analyze.
+   * @return The results in the order of the passed jars. The failure of a jar is reported in its
+   *         result and does not stop the analysis of the other jars.
+   * @throws InterruptedException
+   *           if the thread is interrupted while it waits for the results.
+   */
+  public List<JarResult> analyze(final List<File> jars) throws InterruptedException {
+    List<Callable<JarResult>> tasks = new ArrayList<>(jars.size());
+    for (final File jar : jars) {
+      tasks.add(new Callable<JarResult>() {
+        @Override
+        public JarResult call() {
+          return analyzeJar(jar);
+        }
+      });
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(parallelism, jars.size())));
+    try {
+      List<Future<JarResult>> futures = pool.invokeAll(tasks);
+      List<JarResult> results = new ArrayList<>(futures.size());
+      for (Future<JarResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return results;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private JarResult analyzeJar(final File file) {
+    JarResult result = new JarResult(file);
+    try (Analyzer analyzer = new Analyzer()) {
+      try {
+        Jar jar = analyzer.setJar(file);
+        for (Map.Entry<String, String> instruction : instructions.entrySet()) {
+          analyzer.setProperty(instruction.getKey(), instruction.getValue());
+        }
+        analyzer.mergeManifest(jar.getManifest());
+        for (Jar classpathJar : classpath) {
+          analyzer.addClasspath(classpathJar);
+        }
+
+        analyzer.analyze();
+        result.components = plugin.analyze(analyzer);
+        for (ComponentData componentData : result.components) {
+          componentData.resolveAttributes();
+        }
+        result.provideCapability = analyzer.getProperty(Constants.PROVIDE_CAPABILITY);
+        result.requireCapability = analyzer.getProperty(Constants.REQUIRE_CAPABILITY);
+        result.capabilityDigest =
+            analyzer.getProperty(ECMBndAnalyzerPlugin.CAPABILITY_DIGEST_HEADER);
+        result.bundleSymbolicName = analyzer.getBsn();
+        result.bundleVersion = new Version(Analyzer.cleanupVersion(analyzer.getVersion()));
+        result.sha256 = Digests.sha256(file);
+        result.size = file.length();
+      } finally {
+        // The shared jars must not be closed together with the Analyzer
+        analyzer.getClasspath().removeAll(classpath);
+        result.errors.addAll(analyzer.getErrors());
+        result.warnings.addAll(analyzer.getWarnings());
+      }
+    } catch (Exception e) {
+      result.errors.add(e.toString());
+    }
+    return result;
+  }
+
+  @Override
+  public void close() {
+    for (Jar jar : classpath) {
+      jar.close();
+    }
+    classpath.clear();
+  }
+}
@@ -15,15 +15,32 @@
  */
 package org.everit.osgi.ecm.bnd;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
-import aQute.bnd.header.Attrs;
-import aQute.bnd.header.Parameters;
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Clazz;
 import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Instruction;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Processor;
 import aQute.bnd.service.AnalyzerPlugin;
+import aQute.bnd.version.Version;
 
 /**
  * Processes the Service and ManualServices annotations of ECM component classes and generates
@@ -31,79 +48,446 @@ import aQute.bnd.service.AnalyzerPlugin;
  */
 public class ECMBndAnalyzerPlugin implements AnalyzerPlugin {
 
+  /**
+   * The MANIFEST header that contains the SHA-256 digest of the generated ECM capabilities if the
+   * {@link ECMInstructions#REPRODUCIBLE} instruction is enabled, e.g.:
+   * <code>sha-256:3a7bd3e2360a3d29eea436fcfb7e44c735d117c42d1c1835420b6b9942dd4f1b</code>. The
+   * digest only changes if the generated capabilities change, so it can be used to skip the
+   * deployment of unchanged bundles.
+   */
+  public static final String CAPABILITY_DIGEST_HEADER = "ECM-Capability-Digest";
+
+  private static final Instruction COMPONENT_ANNOTATION =
+      new Instruction("org.everit.osgi.ecm.annotation.Component");
+
   public ECMBndAnalyzerPlugin() {
   }
 
-  private void addComponentCapability(final ECMClassDataCollector ecmClassDataCollector,
-      final Collection<Parameters> provides) {
+  /**
+   * Processes the component classes of an analyzed jar and updates the Analyzer based on the
+   * instructions.
+   *
+   * @param analyzer
+   *          The Analyzer whose class space is already filled.
+   * @return The data of the processed components.
+   * @throws Exception
+   *           if a class cannot be processed.
+   */
+  List<ComponentData> analyze(final Analyzer analyzer) throws Exception {
+    AnalysisStatistics statistics =
+        new AnalysisStatistics(Processor.isTrue(analyzer.getProperty(ECMInstructions.STATISTICS)));
+
+    List<ComponentData> components;
+    try (AnalysisContext analysisContext =
+        new AnalysisContext(analyzer, createComponentDataCache(analyzer),
+            resolveTypeLookupCache(analyzer), statistics)) {
+
+      long startNanos = statistics.start();
+      List<Clazz> classes = findComponentClasses(analyzer, analysisContext);
+      statistics.stop(AnalysisStatistics.Phase.CLASS_QUERY, startNanos);
+
+      ComponentClassProcessor componentClassProcessor =
+          new ComponentClassProcessor(analysisContext);
 
-    Attrs attrs = new Attrs();
-    attrs.put("componentId", ecmClassDataCollector.getComponentId());
-    attrs.putTyped("version", ecmClassDataCollector.getVersion());
-    attrs.put("class", ecmClassDataCollector.getClazz().getFQN());
-    attrs.put("label", ecmClassDataCollector.getLabel());
+      components = new ArrayList<>(classes.size());
+      for (Clazz clazz : classes) {
+        ComponentData componentData = componentClassProcessor.process(clazz);
+        if (componentData != null) {
+          components.add(componentData);
+        }
+      }
+      statistics.add(AnalysisStatistics.Counter.COMPONENTS_FOUND, components.size());
 
-    String description = ecmClassDataCollector.getDescription();
-    if (description != null) {
-      attrs.put("description", description);
+      String validate = analyzer.getProperty(ECMInstructions.VALIDATE);
+      boolean validationEnabled = validate == null || Processor.isTrue(validate);
+      String dependencyGraphPath =
+          resolveResourcePath(analyzer.getProperty(ECMInstructions.DEPENDENCY_GRAPH),
+              ComponentDependencyGraph.DEFAULT_PATH);
+      ComponentDependencyGraph dependencyGraph = null;
+      if (validationEnabled || dependencyGraphPath != null) {
+        startNanos = statistics.start();
+        dependencyGraph = ComponentDependencyGraph.build(components);
+        statistics.stop(AnalysisStatistics.Phase.DEPENDENCY_GRAPH, startNanos);
+      }
+      if (validationEnabled) {
+        startNanos = statistics.start();
+        ComponentValidator componentValidator =
+            new ComponentValidator(analyzer, analysisContext.getTypeHierarchyIndex());
+        componentValidator.validate(components);
+        componentValidator.validateDependencies(dependencyGraph);
+        statistics.stop(AnalysisStatistics.Phase.VALIDATION, startNanos);
+      }
+
+      // The outputs are written while the localization files of the analysis are still cached,
+      // as the labels and descriptions are resolved only when they are written
+      boolean compact = Processor.isTrue(analyzer.getProperty(ECMInstructions.COMPACT));
+      boolean reproducible =
+          Processor.isTrue(analyzer.getProperty(ECMInstructions.REPRODUCIBLE));
+      if (reproducible) {
+        sortCanonically(components);
+      }
+      Set<String> componentAttributes = resolveComponentAttributes(analyzer);
+      startNanos = statistics.start();
+      ProvideCapabilityMerger provideCapabilityMerger = new ProvideCapabilityMerger(analyzer,
+          resolveConflictPolicy(analyzer), compact, componentAttributes, reproducible);
+      String provideCapability = provideCapabilityMerger
+          .merge(analyzer.getProperty(Constants.PROVIDE_CAPABILITY), components);
+      analyzer.setProperty(Constants.PROVIDE_CAPABILITY, provideCapability);
+      if (reproducible) {
+        writeCapabilityDigest(analyzer, components, compact, componentAttributes);
+      }
+      if (Processor.isTrue(analyzer.getProperty(ECMInstructions.REQUIREMENTS))) {
+        writeRequirements(analyzer, components);
+      }
+      statistics.stop(AnalysisStatistics.Phase.HEADER_SERIALIZATION, startNanos);
+
+      writeComponentIndex(analyzer, components, compact);
+      writeAccessorIndex(analyzer, components);
+      if (dependencyGraphPath != null) {
+        writeDependencyGraph(analyzer, dependencyGraphPath, dependencyGraph);
+      }
+      if (Processor.isTrue(analyzer.getProperty(ECMInstructions.METATYPE))) {
+        writeMetatypeDescriptors(analyzer, components);
+      }
+      writeRepositoryFragment(analyzer);
+    }
+    if (Processor.isTrue(analyzer.getProperty(ECMInstructions.TYPE_SUMMARY))) {
+      writeTypeHierarchySummary(analyzer);
     }
 
-    Parameters parameters = new Parameters();
-    parameters.put("org.everit.osgi.ecm.component", attrs);
+    if (statistics.isEnabled()) {
+      reportStatistics(analyzer, statistics);
+    }
+    return components;
+  }
 
-    provides.add(parameters);
+  @Override
+  public boolean analyzeJar(final Analyzer analyzer) throws Exception {
+    analyze(analyzer);
+    return false;
   }
 
-  private void addOSGiServiceCapabilities(final ECMClassDataCollector ecmClassDataCollector,
-      final Collection<Parameters> provides) {
+  private ComponentDataCache createComponentDataCache(final Analyzer analyzer) {
+    String cacheDirectory = analyzer.getProperty(ECMInstructions.CACHE);
+    if (cacheDirectory == null || "".equals(cacheDirectory.trim())) {
+      return null;
+    }
+    return new ComponentDataCache(analyzer.getFile(cacheDirectory.trim()), analyzer);
+  }
 
-    String componentId = ecmClassDataCollector.getComponentId();
-    Collection<Collection<String>> servicesWithInterfaces =
-        ecmClassDataCollector.getServicesWithInterfaces();
-    for (Collection<String> serviceInterfaces : servicesWithInterfaces) {
-      Attrs attrs = new Attrs();
+  /**
+   * Selects the component classes based on the annotations that bnd collected during the analysis
+   * of the jar, without copying the class space and parsing the query macro of
+   * {@link Analyzer#getClasses(String...)}. The classes that are rejected by the
+   * {@link ClassNameFilter} are skipped before their annotations are checked. The classes that
+   * have a stereotype candidate annotation are selected as well; they are dropped later if none of
+   * their annotations turns out to be a stereotype. Annotation types are never components, as
+   * they can only be stereotypes.
+   */
+  private List<Clazz> findComponentClasses(final Analyzer analyzer,
+      final AnalysisContext analysisContext) throws Exception {
+    AnalysisStatistics statistics = analysisContext.getStatistics();
+    StereotypeResolver stereotypeResolver = analysisContext.getStereotypeResolver();
+    Collection<Clazz> classspace = analyzer.getClassspace().values();
+    ClassNameFilter classNameFilter = ClassNameFilter.create(analyzer);
+    List<Clazz> result = new ArrayList<>();
+    for (Clazz clazz : classspace) {
+      if (classNameFilter != null && !classNameFilter.accepts(clazz.getFQN())) {
+        statistics.increment(AnalysisStatistics.Counter.CLASSES_EXCLUDED);
+      } else if (!clazz.isAnnotation()
+          && (clazz.is(Clazz.QUERY.ANNOTATED, COMPONENT_ANNOTATION, analyzer)
+              || (stereotypeResolver != null
+                  && stereotypeResolver.isStereotypeAnnotated(clazz)))) {
+        result.add(clazz);
+      }
+    }
+    statistics.add(AnalysisStatistics.Counter.CLASSES_SCANNED, classspace.size());
+    return result;
+  }
 
-      attrs.putTyped("objectClass", serviceInterfaces);
-      attrs.put("org.everit.osgi.ecm.component.id", componentId);
-      attrs.putTyped("org.everit.osgi.ecm.component.version", ecmClassDataCollector.getVersion());
+  /**
+   * Traces the statistics and writes them to the JSON report file if one is configured.
+   */
+  private void reportStatistics(final Analyzer analyzer, final AnalysisStatistics statistics)
+      throws IOException {
+    String bundleSymbolicName = analyzer.getBsn();
+    analyzer.trace("ECM analysis statistics of %s: %s", bundleSymbolicName, statistics);
 
-      Parameters parameters = new Parameters();
-      parameters.put("osgi.service", attrs);
+    String reportPath = analyzer.getProperty(ECMInstructions.STATISTICS_REPORT);
+    if (reportPath == null || "".equals(reportPath.trim())) {
+      return;
+    }
+    writeFile(analyzer.getFile(reportPath.trim()),
+        statistics.toJSON(bundleSymbolicName).getBytes(StandardCharsets.UTF_8));
+  }
 
-      provides.add(parameters);
+  /**
+   * Resolves the optional attributes of the component capabilities that are written to the
+   * Provide-Capability header.
+   */
+  private Set<String> resolveComponentAttributes(final Analyzer analyzer) {
+    String componentAttributes = analyzer.getProperty(ECMInstructions.COMPONENT_ATTRIBUTES);
+    if (componentAttributes == null || "".equals(componentAttributes.trim())) {
+      return CapabilityHeaderWriter.OPTIONAL_COMPONENT_ATTRIBUTES;
     }
+    Set<String> result = new HashSet<>();
+    for (String componentAttribute : Processor.split(componentAttributes)) {
+      if (CapabilityHeaderWriter.OPTIONAL_COMPONENT_ATTRIBUTES.contains(componentAttribute)) {
+        result.add(componentAttribute);
+      } else if (!"none".equals(componentAttribute)) {
+        analyzer.error("Invalid value of %s instruction: %s",
+            ECMInstructions.COMPONENT_ATTRIBUTES, componentAttribute);
+      }
+    }
+    return result;
   }
 
-  @Override
-  public boolean analyzeJar(final Analyzer analyzer) throws Exception {
-    Collection<Clazz> classes =
-        analyzer.getClasses("getComponentClasses", Clazz.QUERY.ANNOTATED.name(),
-            "org.everit.osgi.ecm.annotation.Component");
+  private ProvideCapabilityMerger.ConflictPolicy resolveConflictPolicy(final Analyzer analyzer) {
+    String conflictPolicy = analyzer.getProperty(ECMInstructions.CAPABILITY_CONFLICT);
+    if (conflictPolicy == null || "".equals(conflictPolicy.trim())) {
+      return ProvideCapabilityMerger.ConflictPolicy.GENERATED;
+    }
+    try {
+      return ProvideCapabilityMerger.ConflictPolicy
+          .valueOf(conflictPolicy.trim().toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      analyzer.error("Invalid value of %s instruction: %s", ECMInstructions.CAPABILITY_CONFLICT,
+          conflictPolicy);
+      return ProvideCapabilityMerger.ConflictPolicy.GENERATED;
+    }
+  }
 
-    Collection<Parameters> provides = new ArrayList<>();
-    for (Clazz clazz : classes) {
-      ECMClassDataCollector ecmClassDataCollector = new ECMClassDataCollector(clazz, analyzer);
-      clazz.parseClassFileWithCollector(ecmClassDataCollector);
-      processCollectedClassData(ecmClassDataCollector, provides);
+  /**
+   * Resolves the path of a generated resource from the value of its instruction.
+   *
+   * @return The path, the default path if the value is <code>true</code> or <code>null</code> if
+   *         the resource is not generated.
+   */
+  private String resolveResourcePath(final String instructionValue, final String defaultPath) {
+    if (!Processor.isTrue(instructionValue)) {
+      return null;
+    }
+    String path = instructionValue.trim();
+    if ("true".equalsIgnoreCase(path)) {
+      return defaultPath;
     }
+    return path;
+  }
 
-    StringBuilder sb = new StringBuilder();
-    for (Parameters parameters : provides) {
-      if (sb.length() > 0) {
-        sb.append(',');
+  /**
+   * Returns the shared {@link TypeLookupCache} after growing it to the configured maximum size,
+   * or <code>null</code> if the maximum size is zero.
+   */
+  private TypeLookupCache resolveTypeLookupCache(final Analyzer analyzer) {
+    TypeLookupCache typeLookupCache = TypeLookupCache.getSharedInstance();
+    String maxSize = analyzer.getProperty(ECMInstructions.TYPE_CACHE_SIZE);
+    if (maxSize == null || "".equals(maxSize.trim())) {
+      return typeLookupCache;
+    }
+    int parsedMaxSize;
+    try {
+      parsedMaxSize = Integer.parseInt(maxSize.trim());
+    } catch (NumberFormatException e) {
+      analyzer.error("Invalid value of %s instruction: %s", ECMInstructions.TYPE_CACHE_SIZE,
+          maxSize);
+      return typeLookupCache;
+    }
+    if (parsedMaxSize <= 0) {
+      return null;
+    }
+    typeLookupCache.growMaxSize(parsedMaxSize);
+    return typeLookupCache;
+  }
+
+  /**
+   * Sorts the components by their ids and class names, and the interface sets of every component
+   * by the names of the interfaces, so the outputs do not depend on the order of the class space.
+   */
+  private void sortCanonically(final List<ComponentData> components) {
+    Collections.sort(components, new Comparator<ComponentData>() {
+      @Override
+      public int compare(final ComponentData o1, final ComponentData o2) {
+        int result = o1.getComponentId().compareTo(o2.getComponentId());
+        if (result != 0) {
+          return result;
+        }
+        return o1.getClassName().compareTo(o2.getClassName());
       }
-      sb.append(parameters.toString());
+    });
+
+    Comparator<Collection<String>> interfaceListComparator =
+        new Comparator<Collection<String>>() {
+          @Override
+          public int compare(final Collection<String> o1, final Collection<String> o2) {
+            Iterator<String> iterator1 = o1.iterator();
+            Iterator<String> iterator2 = o2.iterator();
+            while (iterator1.hasNext() && iterator2.hasNext()) {
+              int result = iterator1.next().compareTo(iterator2.next());
+              if (result != 0) {
+                return result;
+              }
+            }
+            return Boolean.compare(iterator1.hasNext(), iterator2.hasNext());
+          }
+        };
+    for (ComponentData componentData : components) {
+      List<Collection<String>> servicesWithInterfaces =
+          new ArrayList<>(componentData.getServicesWithInterfaces());
+      Collections.sort(servicesWithInterfaces, interfaceListComparator);
+      componentData
+          .setServicesWithInterfaces(new LinkedHashSet<Collection<String>>(servicesWithInterfaces));
     }
-    analyzer.setProperty(Constants.PROVIDE_CAPABILITY, sb.toString());
+  }
 
-    return false;
+  /**
+   * Writes the {@link AccessorIndex} of the components if the instruction is specified.
+   */
+  private void writeAccessorIndex(final Analyzer analyzer, final List<ComponentData> components) {
+    String indexPath = resolveResourcePath(analyzer.getProperty(ECMInstructions.ACCESSORS),
+        AccessorIndex.DEFAULT_PATH);
+    if (indexPath == null) {
+      return;
+    }
+    Jar jar = analyzer.getJar();
+    jar.putResource(indexPath,
+        new EmbeddedResource(AccessorIndex.write(components), jar.lastModified()));
   }
 
-  private void processCollectedClassData(final ECMClassDataCollector ecmClassDataCollector,
-      final Collection<Parameters> provides) {
+  /**
+   * Sets the {@link #CAPABILITY_DIGEST_HEADER} based on the canonical form of the generated
+   * capabilities. The clauses that are already configured for the bundle are not included.
+   */
+  private void writeCapabilityDigest(final Analyzer analyzer,
+      final List<ComponentData> components, final boolean compact,
+      final Set<String> componentAttributes) {
+    StringBuilder sb = new StringBuilder(CapabilityHeaderWriter.estimateLength(components));
+    new CapabilityHeaderWriter(sb, compact, componentAttributes).writeByNamespace(components);
+    MessageDigest messageDigest;
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] digest = messageDigest.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+    analyzer.setProperty(CAPABILITY_DIGEST_HEADER, "sha-256:" + Digests.toHex(digest));
+  }
+
+  /**
+   * Writes the {@link ComponentIndex} if the instruction is specified, or in the compact mode if
+   * the instruction does not disable it, as the index holds the attributes that are left out of
+   * the compact header.
+   */
+  private void writeComponentIndex(final Analyzer analyzer, final List<ComponentData> components,
+      final boolean compact) {
+    String indexPath = analyzer.getProperty(ECMInstructions.INDEX);
+    if (compact && (indexPath == null || "".equals(indexPath.trim()))) {
+      indexPath = "true";
+    }
+    indexPath = resolveResourcePath(indexPath, ComponentIndex.DEFAULT_PATH);
+    if (indexPath == null) {
+      return;
+    }
+    Jar jar = analyzer.getJar();
+    jar.putResource(indexPath,
+        new EmbeddedResource(ComponentIndex.write(components), jar.lastModified()));
+  }
 
-    addComponentCapability(ecmClassDataCollector, provides);
-    addOSGiServiceCapabilities(ecmClassDataCollector, provides);
+  private void writeDependencyGraph(final Analyzer analyzer, final String path,
+      final ComponentDependencyGraph dependencyGraph) {
+    Jar jar = analyzer.getJar();
+    jar.putResource(path, new EmbeddedResource(dependencyGraph.write(), jar.lastModified()));
   }
 
+  private void writeFile(final File file, final byte[] content) throws IOException {
+    File parentDirectory = file.getParentFile();
+    if (parentDirectory != null) {
+      Files.createDirectories(parentDirectory.toPath());
+    }
+    Files.write(file.toPath(), content);
+  }
+
+  /**
+   * Writes the MetaType descriptors of the components that have configuration attributes. The
+   * descriptors that are already in the jar are kept.
+   */
+  private void writeMetatypeDescriptors(final Analyzer analyzer,
+      final List<ComponentData> components) {
+    Jar jar = analyzer.getJar();
+    for (ComponentData componentData : components) {
+      if (componentData.getMetatype() == null) {
+        continue;
+      }
+      String path = MetatypeWriter.path(componentData.getComponentId());
+      if (jar.getResource(path) != null) {
+        analyzer.warning("The MetaType descriptor of the component %s is not generated as %s"
+            + " already exists", componentData.getComponentId(), path);
+        continue;
+      }
+      jar.putResource(path,
+          new EmbeddedResource(MetatypeWriter.write(componentData), jar.lastModified()));
+    }
+  }
+
+  /**
+   * Writes the resource element of the bundle for an OSGi repository index if the instruction is
+   * specified. The fragment contains the identity of the bundle and the clauses of the
+   * Provide-Capability header with the generated ECM capabilities and of the Require-Capability
+   * header. The content capability is added by {@link RepositoryIndexAggregator}, as the bundle
+   * is written only after the analysis.
+   */
+  private void writeRepositoryFragment(final Analyzer analyzer) throws IOException {
+    String fragmentPath = analyzer.getProperty(ECMInstructions.REPOSITORY_FRAGMENT);
+    if (fragmentPath == null || "".equals(fragmentPath.trim())) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    RepositoryIndexWriter repositoryIndexWriter = new RepositoryIndexWriter(sb);
+    repositoryIndexWriter.resourceStart();
+    repositoryIndexWriter.writeIdentityCapability(analyzer.getBsn(),
+        new Version(Analyzer.cleanupVersion(analyzer.getVersion())));
+    repositoryIndexWriter.writeCapabilities(analyzer.getProperty(Constants.PROVIDE_CAPABILITY));
+    repositoryIndexWriter.writeRequirements(analyzer.getProperty(Constants.REQUIRE_CAPABILITY));
+    repositoryIndexWriter.resourceEnd();
+    writeFile(analyzer.getFile(fragmentPath.trim()),
+        sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Appends the requirements of the references of the components to the Require-Capability header
+   * that is already configured for the bundle.
+   */
+  private void writeRequirements(final Analyzer analyzer, final List<ComponentData> components) {
+    String existingHeader = analyzer.getProperty(Constants.REQUIRE_CAPABILITY);
+    StringBuilder sb = new StringBuilder();
+    if (existingHeader != null) {
+      sb.append(existingHeader.trim());
+    }
+    int existingLength = sb.length();
+    new RequirementHeaderWriter(sb).writeAll(components);
+    if (sb.length() > existingLength) {
+      analyzer.setProperty(Constants.REQUIRE_CAPABILITY, sb.toString());
+    }
+  }
+
+  /**
+   * Writes the {@link TypeHierarchySummary} of the public types of the jar. The exported packages
+   * are not known yet when the plugin is called, so all public types are included.
+   */
+  private void writeTypeHierarchySummary(final Analyzer analyzer) {
+    List<Clazz> publicClasses = new ArrayList<>();
+    for (Clazz clazz : analyzer.getClassspace().values()) {
+      if (clazz.isPublic()) {
+        publicClasses.add(clazz);
+      }
+    }
+    Collections.sort(publicClasses, Clazz.NAME_COMPARATOR);
+
+    List<TypeLookupCache.TypeInfo> types = new ArrayList<>(publicClasses.size());
+    for (Clazz clazz : publicClasses) {
+      types.add(TypeLookupCache.TypeInfo.of(clazz));
+    }
+    Jar jar = analyzer.getJar();
+    jar.putResource(TypeHierarchySummary.PATH,
+        new EmbeddedResource(TypeHierarchySummary.write(types), jar.lastModified()));
+  }
 }
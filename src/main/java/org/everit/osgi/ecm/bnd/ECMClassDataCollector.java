@@ -15,10 +15,17 @@
  */
 package org.everit.osgi.ecm.bnd;
 
-import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.Properties;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import aQute.bnd.osgi.Analyzer;
@@ -26,56 +33,146 @@ import aQute.bnd.osgi.Annotation;
 import aQute.bnd.osgi.ClassDataCollector;
 import aQute.bnd.osgi.Clazz;
 import aQute.bnd.osgi.Descriptors.TypeRef;
-import aQute.bnd.osgi.Resource;
 import aQute.bnd.version.Version;
 
 /**
- * Collects ECM Service and ManualService annotations.
+ * Collects ECM Service and ManualService annotations, the static service properties, the service
+ * and bundle capability references whose target is known at build time, the configuration
+ * attributes and the members that the container calls.
  */
 public class ECMClassDataCollector extends ClassDataCollector {
 
-  private static final String LOCALIZED_VALUE_PREFIX = "%";
+  private static final String ATTRIBUTE_ANNOTATION_PACKAGE =
+      "org.everit.osgi.ecm.annotation.attribute.";
+
+  /**
+   * The MetaType types of the attributes by the simple names of their annotations.
+   */
+  private static final Map<String, String> ATTRIBUTE_TYPES;
+
+  private static final String DEFAULT_LOCALIZATION_BASE = "OSGI-INF/metatype/metatype";
+
+  /**
+   * The keys of the lifecycle methods by the FQNs of their annotations.
+   */
+  private static final Map<String, String> LIFECYCLE_ANNOTATIONS;
+
+  /**
+   * The types of the reference setter parameters that do not tell the referenced interface.
+   */
+  private static final Set<String> REFERENCE_HOLDER_TYPES = new HashSet<>(Arrays.asList(
+      "java.lang.Object", "java.util.Map", "org.everit.osgi.ecm.annotation.NullClass",
+      "org.everit.osgi.ecm.component.ServiceHolder", "org.osgi.framework.ServiceReference",
+      "org.osgi.framework.wiring.BundleCapability"));
+
+  /**
+   * The types of the capability attributes by the names of the service property types.
+   */
+  private static final Map<String, String> SERVICE_PROPERTY_TYPES;
+
+  static {
+    Map<String, String> attributeTypes = new HashMap<>();
+    attributeTypes.put("BooleanAttribute", "Boolean");
+    attributeTypes.put("ByteAttribute", "Byte");
+    attributeTypes.put("CharacterAttribute", "Char");
+    attributeTypes.put("DoubleAttribute", "Double");
+    attributeTypes.put("FloatAttribute", "Float");
+    attributeTypes.put("IntegerAttribute", "Integer");
+    attributeTypes.put("LongAttribute", "Long");
+    attributeTypes.put("PasswordAttribute", "Password");
+    attributeTypes.put("ShortAttribute", "Short");
+    attributeTypes.put("StringAttribute", "String");
+    ATTRIBUTE_TYPES = Collections.unmodifiableMap(attributeTypes);
+
+    Map<String, String> lifecycleAnnotations = new HashMap<>();
+    lifecycleAnnotations.put("org.everit.osgi.ecm.annotation.Activate", "activate");
+    lifecycleAnnotations.put("org.everit.osgi.ecm.annotation.Deactivate", "deactivate");
+    lifecycleAnnotations.put("org.everit.osgi.ecm.annotation.Update", "update");
+    LIFECYCLE_ANNOTATIONS = Collections.unmodifiableMap(lifecycleAnnotations);
+
+    Map<String, String> servicePropertyTypes = new HashMap<>();
+    servicePropertyTypes.put("BYTE", ServicePropertyData.TYPE_LONG);
+    servicePropertyTypes.put("DOUBLE", ServicePropertyData.TYPE_DOUBLE);
+    servicePropertyTypes.put("FLOAT", ServicePropertyData.TYPE_DOUBLE);
+    servicePropertyTypes.put("INTEGER", ServicePropertyData.TYPE_LONG);
+    servicePropertyTypes.put("LONG", ServicePropertyData.TYPE_LONG);
+    servicePropertyTypes.put("SHORT", ServicePropertyData.TYPE_LONG);
+    servicePropertyTypes.put("VERSION", ServicePropertyData.TYPE_VERSION);
+    SERVICE_PROPERTY_TYPES = Collections.unmodifiableMap(servicePropertyTypes);
+  }
 
   private boolean allInterfacesAppended = false;
 
-  private final Analyzer analyzer;
+  private final AnalysisContext analysisContext;
+
+  private ComponentAttributeResolver attributeResolver;
+
+  private final List<AttributeData> attributes = new ArrayList<>();
 
   private final Clazz clazz;
 
+  private Annotation componentAnnotation;
+
   private String componentId;
 
-  private String description;
+  /**
+   * The interface sets of the services that are registered by the container, i.e. that come from
+   * Service annotations.
+   */
+  private final Set<Collection<String>> componentServicesWithInterfaces = new HashSet<>();
+
+  /**
+   * The method whose annotations are processed or <code>null</code> if the annotations of a field
+   * or the class are processed.
+   */
+  private Clazz.MethodDef currentMethod;
+
+  private final Set<String> declaredServiceInterfaces = new LinkedHashSet<>();
+
+  private String declaredVersion;
+
+  private final Set<String> dependencyPaths = new LinkedHashSet<>();
+
+  private boolean directlyAnnotatedComponent = false;
+
+  private final Map<String, AccessorData.MethodSignature> lifecycleMethods =
+      new LinkedHashMap<>();
 
-  private String label;
+  private final List<ReferenceData> references = new ArrayList<>();
 
-  private Properties localizationProperties = null;
+  private final List<ServicePropertyData> serviceProperties = new ArrayList<>();
 
   private final Collection<Collection<String>> servicesWithInterfaces = new LinkedHashSet<>();
 
+  /**
+   * The names of the setters that are specified in the annotations on the class by the attribute
+   * and reference ids. The setters are looked up when the accessors are requested, as the
+   * annotations of the class are processed after its methods.
+   */
+  private final Map<String, String> setterNamesByMemberId = new LinkedHashMap<>();
+
+  private final Map<String, AccessorData.MethodSignature> setters = new LinkedHashMap<>();
+
+  /**
+   * The first non-static method with one parameter for every method name of the class.
+   */
+  private final Map<String, Clazz.MethodDef> singleParameterMethods = new HashMap<>();
+
+  /**
+   * The hierarchy of the class. It is resolved only if the component provides services, as it is
+   * needed to collect and to validate the service interfaces.
+   */
+  private TypeHierarchyIndex.Entry typeHierarchy;
+
   private Version version;
 
   public ECMClassDataCollector(final Clazz clazz, final Analyzer analyzer) {
-    this.clazz = clazz;
-    this.analyzer = analyzer;
+    this(clazz, new AnalysisContext(analyzer, null, null, new AnalysisStatistics(false)));
   }
 
-  private void addAllInterfaceRecurse(final Clazz currentClazz, final Set<String> interfaceNames) {
-    if (currentClazz == null) {
-      return;
-    }
-    if (currentClazz.isInterface()) {
-      interfaceNames.add(currentClazz.getFQN());
-    }
-    Clazz superClazzTypeRef = resolveClazzByTypeRef(currentClazz.getSuper());
-    addAllInterfaceRecurse(superClazzTypeRef, interfaceNames);
-
-    TypeRef[] interfaces = currentClazz.getInterfaces();
-    if (interfaces != null) {
-      for (TypeRef typeRef : interfaces) {
-        Clazz interfaceClazz = resolveClazzByTypeRef(typeRef);
-        addAllInterfaceRecurse(interfaceClazz, interfaceNames);
-      }
-    }
+  ECMClassDataCollector(final Clazz clazz, final AnalysisContext analysisContext) {
+    this.clazz = clazz;
+    this.analysisContext = analysisContext;
   }
 
   @Override
@@ -83,81 +180,407 @@ public class ECMClassDataCollector extends ClassDataCollector {
     String annotationFQN = annotation.getName().getFQN();
 
     switch (annotationFQN) {
+      case "org.everit.osgi.ecm.annotation.BundleCapabilityRef":
+        handleBundleCapabilityRefAnnotation(annotation, currentMethodOf(annotation));
+        break;
+      case "org.everit.osgi.ecm.annotation.BundleCapabilityRefs":
+        for (Object referenceAnnotation : annotation.<Object[]> get("value")) {
+          handleBundleCapabilityRefAnnotation((Annotation) referenceAnnotation, null);
+        }
+        break;
       case "org.everit.osgi.ecm.annotation.Component":
+        directlyAnnotatedComponent = true;
         handleComponentAnnotation(annotation);
         break;
       case "org.everit.osgi.ecm.annotation.ManualServices":
         handleManualServicesAnnotation(annotation);
         break;
       case "org.everit.osgi.ecm.annotation.Service":
-        handleServiceAnnotation(annotation);
+        handleServiceAnnotation(annotation, true);
+        break;
+      case "org.everit.osgi.ecm.annotation.ServiceProperties":
+        for (Object propertyAnnotation : annotation.<Object[]> get("value")) {
+          handleServicePropertyAnnotation((Annotation) propertyAnnotation);
+        }
+        break;
+      case "org.everit.osgi.ecm.annotation.ServiceProperty":
+        handleServicePropertyAnnotation(annotation);
+        break;
+      case "org.everit.osgi.ecm.annotation.ServiceRef":
+        handleServiceRefAnnotation(annotation, currentMethodOf(annotation));
+        break;
+      case "org.everit.osgi.ecm.annotation.ServiceRefs":
+        for (Object referenceAnnotation : annotation.<Object[]> get("value")) {
+          handleServiceRefAnnotation((Annotation) referenceAnnotation, null);
+        }
         break;
       default:
+        String lifecycleMethodKey = LIFECYCLE_ANNOTATIONS.get(annotationFQN);
+        if (lifecycleMethodKey != null) {
+          Clazz.MethodDef lifecycleMethod = currentMethodOf(annotation);
+          if (lifecycleMethod != null) {
+            lifecycleMethods.put(lifecycleMethodKey, signatureOf(lifecycleMethod));
+          }
+        } else if (!handleAttributeAnnotations(annotation, annotationFQN)) {
+          handleStereotypeCandidate(annotation, annotationFQN);
+        }
         break;
     }
   }
 
+  private Clazz.MethodDef currentMethodOf(final Annotation annotation) {
+    if (annotation.getElementType() == ElementType.METHOD) {
+      return currentMethod;
+    }
+    return null;
+  }
+
+  @Override
+  public void field(final Clazz.FieldDef field) {
+    currentMethod = null;
+  }
+
+  /**
+   * The members of the component class that the container calls. The setters that are specified
+   * by name in the annotations on the class are resolved to the first method of the class with
+   * that name and one parameter.
+   *
+   * @return The accessors of the component class.
+   */
+  public AccessorData getAccessorData() {
+    AccessorData accessorData = new AccessorData();
+    accessorData.setPublicConstructor(clazz.hasPublicNoArgsConstructor());
+    accessorData.getLifecycleMethods().putAll(lifecycleMethods);
+    accessorData.getSetters().putAll(setters);
+    for (Map.Entry<String, String> setterName : setterNamesByMemberId.entrySet()) {
+      Clazz.MethodDef setter = singleParameterMethods.get(setterName.getValue());
+      if (setter != null && !setters.containsKey(setterName.getKey())) {
+        accessorData.getSetters().put(setterName.getKey(), signatureOf(setter));
+      }
+    }
+    return accessorData;
+  }
+
+  /**
+   * The resolver of the label and the description of the component. The label and the description
+   * are resolved only when they are used, so the localization file is only read if they are
+   * written.
+   *
+   * @return The resolver or <code>null</code> if the class does not have a Component annotation.
+   */
+  public ComponentAttributeResolver getAttributeResolver() {
+    if (attributeResolver == null && componentAnnotation != null) {
+      attributeResolver = new ComponentAttributeResolver(componentId,
+          (String) componentAnnotation.get("label"),
+          (String) componentAnnotation.get("description"), resolveLocalizationBase(),
+          analysisContext.getLocalizationCache());
+    }
+    return attributeResolver;
+  }
+
+  /**
+   * The configuration attributes of the component that appear in its MetaType descriptor, in the
+   * order they were found in the class.
+   *
+   * @return The attributes.
+   */
+  public List<AttributeData> getAttributes() {
+    return attributes;
+  }
+
   public Clazz getClazz() {
     return clazz;
   }
 
+  /**
+   * Creates a {@link ComponentData} instance from the collected information.
+   *
+   * @return The collected data of the component.
+   */
+  public ComponentData getComponentData() {
+    ComponentData componentData = new ComponentData();
+    componentData.setAccessor(getAccessorData());
+    componentData.setClassName(clazz.getFQN());
+    componentData.setComponentId(componentId);
+    componentData.setAttributeResolver(getAttributeResolver());
+    componentData.setDeclaredServiceInterfaces(declaredServiceInterfaces);
+    componentData.setVersion(version);
+    componentData.setManualServicesWithInterfaces(getManualServicesWithInterfaces());
+    componentData.setMetatype(getMetatypeData());
+    componentData.setReferences(references);
+    componentData.setServiceProperties(serviceProperties);
+    componentData.setServicesWithInterfaces(servicesWithInterfaces);
+    componentData.setSupertypeNames(getSupertypeNames());
+    componentData.setUnresolvedSupertypeNames(getUnresolvedSupertypeNames());
+    return componentData;
+  }
+
   public String getComponentId() {
     return componentId;
   }
 
+  /**
+   * The interfaces that are listed explicitly in the Service annotations of the class, directly or
+   * through stereotypes. The interfaces of the ManualService annotations are not included, as they
+   * do not have to be implemented by the component class.
+   *
+   * @return The declared service interfaces.
+   */
+  public Set<String> getDeclaredServiceInterfaces() {
+    return declaredServiceInterfaces;
+  }
+
+  /**
+   * The version that is specified in the Component annotation.
+   *
+   * @return The declared version or <code>null</code> if the version of the bundle is used.
+   */
+  public String getDeclaredVersion() {
+    return declaredVersion;
+  }
+
+  /**
+   * The paths of the resources (supertypes and stereotypes) that were read during the
+   * collection. The collected data is valid as long as the content of these resources does not
+   * change.
+   *
+   * @return The paths of the resources that the collected data depends on.
+   */
+  public Set<String> getDependencyPaths() {
+    if (!servicesWithInterfaces.isEmpty()) {
+      // The supertypes of the class are part of the collected data
+      resolveTypeHierarchy();
+    }
+    return dependencyPaths;
+  }
+
+  /**
+   * The description of the component. The description is resolved on the first call, so the
+   * localization file is only read if the description is used.
+   *
+   * @return The description or <code>null</code> if the component does not have one.
+   */
   public String getDescription() {
-    return description;
+    ComponentAttributeResolver resolver = getAttributeResolver();
+    return (resolver == null) ? null : resolver.getDescription();
   }
 
+  /**
+   * The label of the component. The label is resolved on the first call, so the localization file
+   * is only read if the label is used.
+   *
+   * @return The label or <code>null</code> if the class does not have a Component annotation.
+   */
   public String getLabel() {
-    return label;
+    ComponentAttributeResolver resolver = getAttributeResolver();
+    return (resolver == null) ? null : resolver.getLabel();
   }
 
-  private Properties getLocalizedProperties(final Annotation componentAnnotation) throws Exception {
-    if (localizationProperties != null) {
-      return localizationProperties;
-    }
-    localizationProperties = new Properties();
-    String localizationBase = componentAnnotation.get("localizationBase");
-    if (localizationBase == null) {
-      localizationBase = "OSGI-INF/metatype/metatype";
-    } else if (localizationBase.trim().equals("")) {
-      return localizationProperties;
-    }
-    Resource localizationFile = analyzer.getJar().getResource(localizationBase + ".properties");
-    if (localizationFile == null) {
-      return localizationProperties;
+  /**
+   * The interface sets of the services that come only from ManualService annotations.
+   *
+   * @return The interface sets.
+   */
+  public Collection<Collection<String>> getManualServicesWithInterfaces() {
+    Collection<Collection<String>> result = new LinkedHashSet<>();
+    for (Collection<String> serviceInterfaces : servicesWithInterfaces) {
+      if (!componentServicesWithInterfaces.contains(serviceInterfaces)) {
+        result.add(serviceInterfaces);
+      }
     }
-    try (InputStream in = localizationFile.openInputStream()) {
-      localizationProperties.load(in);
+    return result;
+  }
+
+  /**
+   * Creates the configuration metadata of the component. The metadata does not depend on the
+   * localization files, as the labels and descriptions are kept unresolved.
+   *
+   * @return The metadata or <code>null</code> if the component does not have attributes, its
+   *         metatype is disabled or it ignores configuration.
+   */
+  public MetatypeData getMetatypeData() {
+    if (componentAnnotation == null || attributes.isEmpty()
+        || Boolean.FALSE.equals(componentAnnotation.get("metatype"))
+        || "IGNORE".equals(componentAnnotation.get("configurationPolicy"))) {
+      return null;
     }
-    return localizationProperties;
+    MetatypeData metatypeData = new MetatypeData();
+    metatypeData.setLabel(nullIfEmpty((String) componentAnnotation.get("label")));
+    metatypeData.setDescription(nullIfEmpty((String) componentAnnotation.get("description")));
+    metatypeData.setLocalizationBase(nullIfEmpty(resolveLocalizationBase()));
+    metatypeData
+        .setFactory("FACTORY".equals(componentAnnotation.get("configurationPolicy")));
+    String configurationPid = nullIfEmpty((String) componentAnnotation.get("configurationPid"));
+    metatypeData.setPid((configurationPid != null) ? configurationPid : componentId);
+    metatypeData.setAttributes(attributes);
+    return metatypeData;
+  }
+
+  public List<ReferenceData> getReferences() {
+    return references;
+  }
+
+  public List<ServicePropertyData> getServiceProperties() {
+    return serviceProperties;
   }
 
   public Collection<Collection<String>> getServicesWithInterfaces() {
     return servicesWithInterfaces;
   }
 
+  /**
+   * The classes and interfaces that the component class extends or implements directly or
+   * indirectly, as far as they could be resolved.
+   *
+   * @return The supertypes or an empty set if the component does not provide services, as the
+   *         hierarchy is only needed to validate the services.
+   */
+  public Set<String> getSupertypeNames() {
+    if (servicesWithInterfaces.isEmpty()) {
+      return Collections.emptySet();
+    }
+    return resolveTypeHierarchy().getSupertypeNames();
+  }
+
+  /**
+   * The supertypes of the component class that cannot be found.
+   *
+   * @return The unresolved supertypes or an empty set if the component does not provide services.
+   */
+  public Set<String> getUnresolvedSupertypeNames() {
+    if (servicesWithInterfaces.isEmpty()) {
+      return Collections.emptySet();
+    }
+    return resolveTypeHierarchy().getUnresolvedTypeNames();
+  }
+
   public Version getVersion() {
     return version;
   }
 
+  private void handleAttributeAnnotation(final Annotation annotation, final String type,
+      final Clazz.MethodDef setter) {
+    String attributeId = resolveMemberId(annotation, "attributeId", setter, null);
+    if (attributeId == null) {
+      return;
+    }
+    recordSetter(attributeId, annotation, setter);
+    if (Boolean.FALSE.equals(annotation.get("metatype"))) {
+      return;
+    }
+    AttributeData attributeData = new AttributeData();
+    attributeData.setAttributeId(attributeId);
+    attributeData.setType(type);
+    attributeData.setLabel(nullIfEmpty((String) annotation.get("label")));
+    attributeData.setDescription(nullIfEmpty((String) annotation.get("description")));
+    Object defaultValue = annotation.get("defaultValue");
+    if (defaultValue instanceof Object[]) {
+      for (Object defaultValueElement : (Object[]) defaultValue) {
+        attributeData.getDefaultValues().add(String.valueOf(defaultValueElement));
+      }
+    } else if (defaultValue != null) {
+      attributeData.getDefaultValues().add(String.valueOf(defaultValue));
+    }
+    attributeData.setOptional(Boolean.TRUE.equals(annotation.get("optional")));
+    Object multiple = annotation.get("multiple");
+    if (multiple instanceof Boolean) {
+      attributeData.setMultiple((Boolean) multiple);
+    } else if ("TRUE".equals(multiple) || "FALSE".equals(multiple)) {
+      attributeData.setMultiple("TRUE".equals(multiple));
+    } else {
+      attributeData.setMultiple(isArraySetter(setter));
+    }
+    attributes.add(attributeData);
+  }
+
+  /**
+   * Collects the attribute that is defined by an attribute annotation, or the attributes of an
+   * attribute container annotation on the class.
+   *
+   * @return Whether the annotation is an attribute or attribute container annotation.
+   */
+  private boolean handleAttributeAnnotations(final Annotation annotation,
+      final String annotationFQN) {
+    if (!annotationFQN.startsWith(ATTRIBUTE_ANNOTATION_PACKAGE)) {
+      return false;
+    }
+    String simpleName = annotationFQN.substring(ATTRIBUTE_ANNOTATION_PACKAGE.length());
+    String type = ATTRIBUTE_TYPES.get(simpleName);
+    if (type != null) {
+      handleAttributeAnnotation(annotation, type, currentMethodOf(annotation));
+      return true;
+    }
+    if (simpleName.endsWith("s")) {
+      type = ATTRIBUTE_TYPES.get(simpleName.substring(0, simpleName.length() - 1));
+    }
+    if (type == null) {
+      return false;
+    }
+    Object[] value = annotation.get("value");
+    if (value != null) {
+      for (Object attributeAnnotation : value) {
+        handleAttributeAnnotation((Annotation) attributeAnnotation, type, null);
+      }
+    }
+    return true;
+  }
+
+  private void handleBundleCapabilityRefAnnotation(final Annotation annotation,
+      final Clazz.MethodDef setter) {
+    recordSetter(resolveMemberId(annotation, "referenceId", setter, null), annotation, setter);
+    String namespace = annotation.get("namespace");
+    if (namespace == null || "".equals(namespace.trim())) {
+      return;
+    }
+    ReferenceData referenceData = new ReferenceData();
+    referenceData.setNamespace(namespace);
+    referenceData.setReferenceId(resolveMemberId(annotation, "referenceId", setter, namespace));
+    referenceData.setOptional(Boolean.TRUE.equals(annotation.get("optional")));
+    referenceData.setMultiple(isArraySetter(setter));
+    references.add(referenceData);
+    handleReferenceAttribute(annotation, referenceData.getReferenceId());
+  }
+
   private void handleComponentAnnotation(final Annotation annotation) {
+    componentAnnotation = annotation;
     componentId = resolveComponentId(annotation);
-    label = resolveLabel(annotation);
-    description = resolveDescription(annotation);
+    attributeResolver = null;
+    declaredVersion = annotation.get("version");
     version = resolveVersion(annotation);
-
   }
 
   private void handleManualServicesAnnotation(final Annotation annotation) {
     Object[] value = annotation.get("value");
     for (Object annotationObj : value) {
-      handleServiceAnnotation((Annotation) annotationObj);
+      handleServiceAnnotation((Annotation) annotationObj, false);
     }
   }
 
-  private void handleServiceAnnotation(final Annotation annotation) {
+  /**
+   * Collects the attribute that the ECM runtime defines implicitly for a reference to configure
+   * its target filters or requirement clauses. The attribute id is
+   * <code>&lt;referenceId&gt;.target</code> if the reference annotation does not specify one.
+   */
+  private void handleReferenceAttribute(final Annotation annotation, final String referenceId) {
+    String attributeId = nullIfEmpty((String) annotation.get("attributeId"));
+    AttributeData attributeData = new AttributeData();
+    attributeData.setAttributeId((attributeId != null) ? attributeId : referenceId + ".target");
+    attributeData.setType("String");
+    attributeData.setLabel(nullIfEmpty((String) annotation.get("label")));
+    attributeData.setDescription(nullIfEmpty((String) annotation.get("description")));
+    Object[] defaultValue = annotation.get("defaultValue");
+    if (defaultValue != null) {
+      for (Object defaultValueElement : defaultValue) {
+        attributeData.getDefaultValues().add(String.valueOf(defaultValueElement));
+      }
+    }
+    attributeData.setOptional(true);
+    attributeData.setMultiple(true);
+    attributes.add(attributeData);
+  }
+
+  private void handleServiceAnnotation(final Annotation annotation,
+      final boolean implementedByComponent) {
     Object[] typeArray = annotation.get("value");
     Set<String> interfaceNames = new LinkedHashSet<>();
     if (typeArray != null && typeArray.length > 0) {
@@ -166,25 +589,148 @@ public class ECMClassDataCollector extends ClassDataCollector {
       }
     }
     if (interfaceNames.size() > 0) {
+      if (implementedByComponent) {
+        declaredServiceInterfaces.addAll(interfaceNames);
+        componentServicesWithInterfaces.add(interfaceNames);
+      }
       servicesWithInterfaces.add(interfaceNames);
     } else if (!allInterfacesAppended) {
       allInterfacesAppended = true;
-      addAllInterfaceRecurse(clazz, interfaceNames);
+      interfaceNames.addAll(resolveTypeHierarchy().getInterfaceNames());
       if (interfaceNames.size() == 0) {
         interfaceNames.add(clazz.getFQN());
       }
+      if (implementedByComponent) {
+        componentServicesWithInterfaces.add(interfaceNames);
+      }
       servicesWithInterfaces.add(interfaceNames);
     }
   }
 
-  private Clazz resolveClazzByTypeRef(final TypeRef typeRef) {
-    if (typeRef == null) {
+  private void handleServicePropertyAnnotation(final Annotation annotation) {
+    ServicePropertyData servicePropertyData = new ServicePropertyData();
+    servicePropertyData.setName((String) annotation.get("name"));
+    String type = SERVICE_PROPERTY_TYPES.get(annotation.get("type"));
+    if (type != null) {
+      servicePropertyData.setType(type);
+    }
+    Object[] value = annotation.get("value");
+    if (value != null) {
+      for (Object valueElement : value) {
+        servicePropertyData.getValues().add(String.valueOf(valueElement));
+      }
+    }
+    serviceProperties.add(servicePropertyData);
+  }
+
+  /**
+   * Collects a service reference if the referenced interface is known: either it is specified in
+   * the annotation or it is the parameter type of the annotated setter method.
+   */
+  private void handleServiceRefAnnotation(final Annotation annotation,
+      final Clazz.MethodDef setter) {
+    recordSetter(resolveMemberId(annotation, "referenceId", setter, null), annotation, setter);
+    TypeRef referenceInterface = annotation.get("referenceInterface");
+    if ((referenceInterface == null
+        || REFERENCE_HOLDER_TYPES.contains(referenceInterface.getFQN())) && setter != null) {
+      TypeRef[] prototype = setter.getPrototype();
+      if (prototype.length == 1) {
+        referenceInterface = prototype[0];
+        if (referenceInterface.getComponentTypeRef() != null) {
+          referenceInterface = referenceInterface.getComponentTypeRef();
+        }
+      }
+    }
+    if (referenceInterface == null || referenceInterface.isPrimitive()
+        || REFERENCE_HOLDER_TYPES.contains(referenceInterface.getFQN())) {
+      return;
+    }
+
+    ReferenceData referenceData = new ReferenceData();
+    referenceData.setNamespace("osgi.service");
+    referenceData.setInterfaceName(referenceInterface.getFQN());
+    referenceData.setReferenceId(
+        resolveMemberId(annotation, "referenceId", setter, referenceInterface.getFQN()));
+    referenceData.setOptional(Boolean.TRUE.equals(annotation.get("optional")));
+    referenceData.setMultiple(isArraySetter(setter));
+    references.add(referenceData);
+    handleReferenceAttribute(annotation, referenceData.getReferenceId());
+  }
+
+  /**
+   * Applies the effective ECM annotations of a stereotype. A Component annotation that is on the
+   * class directly has priority over the one that comes from a stereotype.
+   */
+  private void handleStereotypeCandidate(final Annotation annotation, final String annotationFQN)
+      throws Exception {
+    StereotypeResolver stereotypeResolver = analysisContext.getStereotypeResolver();
+    if (stereotypeResolver == null || annotation.getElementType() != ElementType.TYPE
+        || !stereotypeResolver.isCandidate(annotationFQN)) {
+      return;
+    }
+    StereotypeResolver.Stereotype stereotype = stereotypeResolver.resolve(annotation.getName());
+    dependencyPaths.addAll(stereotype.getDependencyPaths());
+    for (Annotation effectiveAnnotation : stereotype
+        .getEffectiveAnnotations(analysisContext.getAnalyzer())) {
+      String effectiveAnnotationFQN = effectiveAnnotation.getName().getFQN();
+      if ("org.everit.osgi.ecm.annotation.Component".equals(effectiveAnnotationFQN)) {
+        if (!directlyAnnotatedComponent) {
+          handleComponentAnnotation(effectiveAnnotation);
+        }
+      } else if ("org.everit.osgi.ecm.annotation.ManualServices".equals(effectiveAnnotationFQN)) {
+        handleManualServicesAnnotation(effectiveAnnotation);
+      } else {
+        handleServiceAnnotation(effectiveAnnotation, true);
+      }
+    }
+  }
+
+  private boolean isArraySetter(final Clazz.MethodDef setter) {
+    if (setter == null) {
+      return false;
+    }
+    TypeRef[] prototype = setter.getPrototype();
+    return prototype.length == 1 && prototype[0].getComponentTypeRef() != null;
+  }
+
+  @Override
+  public void memberEnd() {
+    currentMethod = null;
+  }
+
+  @Override
+  public void method(final Clazz.MethodDef method) {
+    currentMethod = method;
+    String methodName = method.getName();
+    if (!method.isStatic() && !"<init>".equals(methodName)
+        && method.getPrototype().length == 1 && !singleParameterMethods.containsKey(methodName)) {
+      singleParameterMethods.put(methodName, method);
+    }
+  }
+
+  private String nullIfEmpty(final String value) {
+    if (value == null || "".equals(value.trim())) {
       return null;
     }
-    try {
-      return analyzer.findClass(typeRef);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+    return value;
+  }
+
+  /**
+   * Records the setter of an attribute or a reference: the annotated method or the name of the
+   * setter that is specified in the annotation.
+   */
+  private void recordSetter(final String memberId, final Annotation annotation,
+      final Clazz.MethodDef setter) {
+    if (memberId == null) {
+      return;
+    }
+    if (setter != null) {
+      setters.put(memberId, signatureOf(setter));
+      return;
+    }
+    String setterName = nullIfEmpty((String) annotation.get("setter"));
+    if (setterName != null) {
+      setterNamesByMemberId.put(memberId, setterName);
     }
   }
 
@@ -197,46 +743,61 @@ public class ECMClassDataCollector extends ClassDataCollector {
     }
   }
 
-  private String resolveDescription(final Annotation annotation) {
-    String result = annotation.get("description");
-    if (result == null || "".equals(result.trim())) {
-      return null;
-    }
-    if (result.startsWith(LOCALIZED_VALUE_PREFIX)) {
-      result = resolveLocalizedValue(result, annotation);
+  /**
+   * Returns the localization base of the component, or a blank string if the component is not
+   * localized.
+   */
+  private String resolveLocalizationBase() {
+    String localizationBase = componentAnnotation.get("localizationBase");
+    if (localizationBase == null) {
+      return DEFAULT_LOCALIZATION_BASE;
     }
-    return result;
+    return localizationBase;
   }
 
-  private String resolveLabel(final Annotation annotation) {
-    String result = annotation.get("label");
-    if (result == null || "".equals(result.trim())) {
-      return this.componentId;
+  /**
+   * Resolves the id of a reference or an attribute: the value of the id element, or the name that
+   * is derived from the annotated setter or the setter that is specified in the annotation.
+   */
+  private String resolveMemberId(final Annotation annotation, final String idElementName,
+      final Clazz.MethodDef setter, final String defaultId) {
+    String memberId = annotation.get(idElementName);
+    if (memberId != null && !"".equals(memberId.trim())) {
+      return memberId;
     }
-    if (result.startsWith(LOCALIZED_VALUE_PREFIX)) {
-      result = resolveLocalizedValue(result, annotation);
+    String setterName = (setter != null) ? setter.getName()
+        : nullIfEmpty((String) annotation.get("setter"));
+    if (setterName != null) {
+      if (setterName.startsWith("set") && setterName.length() > 3) {
+        return Character.toLowerCase(setterName.charAt(3)) + setterName.substring(4);
+      }
+      return setterName;
     }
-    return result;
+    return defaultId;
   }
 
-  private String resolveLocalizedValue(final String localizedValue,
-      final Annotation componentAnnotation) {
-    String result = localizedValue.substring(1);
-    try {
-      Properties props = getLocalizedProperties(componentAnnotation);
-      return props.getProperty(result, result);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+  /**
+   * Resolves the hierarchy of the class on the first call. The supertypes that were looked up
+   * become dependencies of the collected data.
+   */
+  private TypeHierarchyIndex.Entry resolveTypeHierarchy() {
+    if (typeHierarchy == null) {
+      typeHierarchy = analysisContext.getTypeHierarchyIndex().get(clazz);
+      dependencyPaths.addAll(typeHierarchy.getDependencyPaths());
     }
-
+    return typeHierarchy;
   }
 
   private Version resolveVersion(final Annotation annotation) {
     String versionValue = annotation.get("version");
     if (versionValue == null) {
-      return new Version(analyzer.getVersion());
+      return analysisContext.getBundleVersion();
     }
     return new Version(versionValue);
   }
 
+  private AccessorData.MethodSignature signatureOf(final Clazz.MethodDef method) {
+    return new AccessorData.MethodSignature(method.getName(), method.getDescriptor().toString());
+  }
+
 }
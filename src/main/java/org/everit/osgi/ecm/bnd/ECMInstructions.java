@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+/**
+ * The bnd instructions that influence the behavior of {@link ECMBndAnalyzerPlugin}.
+ */
+public final class ECMInstructions {
+
+  /**
+   * The path of the accessor index (see {@link AccessorIndex}) that is added to the bundle. The
+   * index lists the constructor, the lifecycle methods and the setters of every component class
+   * with their exact signatures, so the runtime does not have to scan the classes reflectively.
+   * With the value <code>true</code>, the index is written to {@link AccessorIndex#DEFAULT_PATH}.
+   * The index is not generated if the instruction is not specified.
+   */
+  public static final String ACCESSORS = "-ecm-accessors";
+
+  /**
+   * The directory where the collected data of the component classes is cached between builds. The
+   * path is resolved relative to the base directory of the Analyzer. Caching is disabled if the
+   * instruction is not specified.
+   */
+  public static final String CACHE = "-ecm-cache";
+
+  /**
+   * Decides what happens if the Provide-Capability header that is configured for the bundle
+   * already contains capabilities of a component that the plugin generates. With
+   * <code>generated</code> (default) the existing clauses of the component are replaced, with
+   * <code>existing</code> the generated clauses of the component are dropped. All other existing
+   * clauses are kept.
+   */
+  public static final String CAPABILITY_CONFLICT = "-ecm-capability-conflict";
+
+  /**
+   * If <code>true</code>, only the attributes that are necessary for resolution are written into
+   * the Provide-Capability header: the component clauses do not contain the label and the
+   * description, the <code>osgi.service</code> clauses contain only the
+   * <code>objectClass</code> attribute and the static service properties, and every set of
+   * service interfaces with the same properties appears only once. The
+   * full data of the components is available in the component index (see {@link #INDEX}) that is
+   * generated to its default path in the compact mode unless the instruction specifies otherwise.
+   */
+  public static final String COMPACT = "-ecm-compact";
+
+  /**
+   * Comma separated list of the optional attributes of the
+   * <code>org.everit.osgi.ecm.component</code> capabilities that are written to the
+   * Provide-Capability header: <code>label</code>, <code>description</code> or <code>none</code>
+   * (default: <code>label,description</code>). The attributes that are not written are not
+   * resolved either, so their localization files are not read.
+   */
+  public static final String COMPONENT_ATTRIBUTES = "-ecm-component-attributes";
+
+  /**
+   * The path of the component dependency graph (see {@link ComponentDependencyGraph}) that is
+   * added to the bundle. The graph groups the components into levels that can be activated in
+   * parallel. With the value <code>true</code>, the graph is written to
+   * {@link ComponentDependencyGraph#DEFAULT_PATH}. The graph is not generated if the instruction
+   * is not specified.
+   */
+  public static final String DEPENDENCY_GRAPH = "-ecm-dependency-graph";
+
+  /**
+   * Comma separated patterns of the component classes that are not processed, e.g.
+   * <code>com.example.shaded.*</code>. The patterns are matched against the fully qualified class
+   * names before the class files are parsed. See {@link #INCLUDE}.
+   */
+  public static final String EXCLUDE = "-ecm-exclude";
+
+  /**
+   * Comma separated patterns of the component classes that are processed, e.g.
+   * <code>com.example.*,!com.example.test.*</code>. If the instruction is specified, only the
+   * classes that match one of the patterns are processed. The first matching pattern decides,
+   * so negated patterns must precede the broader ones. {@link #EXCLUDE} is applied after the
+   * includes.
+   */
+  public static final String INCLUDE = "-ecm-include";
+
+  /**
+   * The path of the binary component index (see {@link ComponentIndex}) that is added to the
+   * bundle. With the value <code>true</code>, the index is written to
+   * {@link ComponentIndex#DEFAULT_PATH}. The index is not generated if the instruction is not
+   * specified.
+   */
+  public static final String INDEX = "-ecm-index";
+
+  /**
+   * If <code>true</code>, an OSGi MetaType descriptor is added to the bundle at
+   * <code>OSGI-INF/metatype/&lt;componentId&gt;.xml</code> for every component that has
+   * configuration attributes, so the MetaType information is available without loading the
+   * component classes. Descriptors that already exist in the bundle are not replaced. Default:
+   * <code>false</code>.
+   */
+  public static final String METATYPE = "-ecm-metatype";
+
+  /**
+   * The path of the file where the resource element of the bundle is written for an OSGi
+   * repository index, resolved relative to the base directory of the Analyzer. The fragment
+   * contains the <code>osgi.identity</code> capability and the clauses of the Provide-Capability
+   * and Require-Capability headers of the bundle, including the generated ones with the same
+   * attributes as in the headers. The fragments of several bundles can be concatenated into one
+   * index with {@link RepositoryIndexAggregator}, which adds the <code>osgi.content</code>
+   * capabilities if the bundles are passed.
+   */
+  public static final String REPOSITORY_FRAGMENT = "-ecm-repository-fragment";
+
+  /**
+   * Whether Require-Capability clauses are generated for the service and bundle capability
+   * references of the components whose target is known at build time (default:
+   * <code>false</code>). The clauses have <code>effective:=active</code>, so they are checked by
+   * resolvers that work with active requirements, but not by the framework. The default filters
+   * of the references are not included, as the configuration can replace them.
+   */
+  public static final String REQUIREMENTS = "-ecm-requirements";
+
+  /**
+   * If <code>true</code>, the output does not depend on the order in which the classes are found
+   * in the jar. The components are sorted by their ids and their interface sets by the interface
+   * names, the generated Provide-Capability clauses are grouped by namespace and the SHA-256
+   * digest of the generated clauses is added as the
+   * {@link ECMBndAnalyzerPlugin#CAPABILITY_DIGEST_HEADER} header.
+   */
+  public static final String REPRODUCIBLE = "-ecm-reproducible";
+
+  /**
+   * Enables the collection of counters and per-phase timers during the analysis. The statistics
+   * are traced by the Analyzer, without adding a warning to the build, and written to the file of
+   * the {@link #STATISTICS_REPORT} instruction if that is specified.
+   */
+  public static final String STATISTICS = "-ecm-statistics";
+
+  /**
+   * The path of the JSON file where the statistics are written if {@link #STATISTICS} is enabled,
+   * resolved relative to the base directory of the Analyzer, e.g.:
+   * <code>target/ecm-statistics.json</code>.
+   */
+  public static final String STATISTICS_REPORT = "-ecm-statistics-report";
+
+  /**
+   * Comma separated patterns of the annotation types that can be stereotypes of components (e.g.
+   * <code>com.acme.stereotype.*</code>). A stereotype is an annotation type that is annotated with
+   * the ECM Component, Service or ManualServices annotations or with other stereotypes. The
+   * classes that are annotated with a matching annotation are processed as if they had the
+   * effective ECM annotations of the stereotype.
+   */
+  public static final String STEREOTYPES = "-ecm-stereotypes";
+
+  /**
+   * The maximum number of supertypes that are kept in the lookup cache that is shared by all
+   * Analyzers of the JVM (default: <code>16384</code>). The least recently used types are dropped
+   * first. As the cache is shared, the instruction can only grow the limit: the largest value of
+   * the bundles that were analyzed in the JVM so far is used, and a smaller value does not shrink
+   * the cache or drop its entries. With <code>0</code> the cache is not used by the analysis of the
+   * bundle, which looks up the supertypes on its own classpath again.
+   */
+  public static final String TYPE_CACHE_SIZE = "-ecm-type-cache-size";
+
+  /**
+   * If <code>true</code>, a summary of the type hierarchies of the public types of the bundle is
+   * added to the bundle. The plugin uses the summaries of the classpath jars to resolve
+   * supertypes without parsing their class files.
+   */
+  public static final String TYPE_SUMMARY = "-ecm-type-summary";
+
+  /**
+   * Whether the collected component data is validated (default: <code>true</code>). Duplicate
+   * component ids and service interfaces that are not implemented by the component class are
+   * reported as errors, service interfaces and supertypes that cannot be found as warnings.
+   */
+  public static final String VALIDATE = "-ecm-validate";
+
+  private ECMInstructions() {
+  }
+}
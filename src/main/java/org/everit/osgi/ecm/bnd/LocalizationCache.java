@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * Cache of the localization files of a jar. Every file is loaded only once, when it is first
+ * requested. The localization of a locale is resolved the same way as the OSGi framework resolves
+ * bundle localizations: <code>base_en_US.properties</code> falls back to
+ * <code>base_en.properties</code> that falls back to <code>base.properties</code>.
+ */
+class LocalizationCache implements Closeable {
+
+  private static final Properties EMPTY_PROPERTIES = new Properties();
+
+  private final Jar jar;
+
+  private final Map<String, Properties> propertiesByPath = new HashMap<>();
+
+  private final AnalysisStatistics statistics;
+
+  LocalizationCache(final Jar jar) {
+    this(jar, new AnalysisStatistics(false));
+  }
+
+  LocalizationCache(final Jar jar, final AnalysisStatistics statistics) {
+    this.jar = jar;
+    this.statistics = statistics;
+  }
+
+  @Override
+  public synchronized void close() {
+    propertiesByPath.clear();
+  }
+
+  /**
+   * Returns the localized properties of a localization base. The returned instance is shared, it
+   * must not be modified.
+   *
+   * @param baseName
+   *          The localization base, e.g.: <code>OSGI-INF/metatype/metatype</code>.
+   * @param locale
+   *          The locale or <code>null</code> if the default localization file should be used.
+   * @return The properties, never <code>null</code>. If no localization file exists, an empty
+   *         instance is returned.
+   * @throws Exception
+   *           if a localization file cannot be read.
+   */
+  public synchronized Properties getProperties(final String baseName, final Locale locale)
+      throws Exception {
+
+    Properties result = load(baseName, EMPTY_PROPERTIES);
+    if (locale == null) {
+      return result;
+    }
+
+    String language = locale.getLanguage();
+    if ("".equals(language)) {
+      return result;
+    }
+    String localeName = baseName + "_" + language;
+    result = load(localeName, result);
+
+    String country = locale.getCountry();
+    if ("".equals(country)) {
+      return result;
+    }
+    localeName = localeName + "_" + country;
+    result = load(localeName, result);
+
+    String variant = locale.getVariant();
+    if ("".equals(variant)) {
+      return result;
+    }
+    return load(localeName + "_" + variant, result);
+  }
+
+  /**
+   * Loads a localization file that falls back to the specified defaults. As the name of the file
+   * determines the chain of the fallback files, the result can be cached by the name.
+   */
+  private Properties load(final String name, final Properties defaults) throws Exception {
+    String path = name + ".properties";
+    Properties result = propertiesByPath.get(path);
+    if (result != null) {
+      return result;
+    }
+    long startNanos = statistics.start();
+    Resource resource = jar.getResource(path);
+    if (resource == null) {
+      result = defaults;
+    } else {
+      result = new Properties(defaults);
+      try (InputStream in = resource.openInputStream()) {
+        result.load(in);
+      }
+      statistics.increment(AnalysisStatistics.Counter.PROPERTIES_LOADS);
+    }
+    statistics.stop(AnalysisStatistics.Phase.LOCALIZATION, startNanos);
+    propertiesByPath.put(path, result);
+    return result;
+  }
+}
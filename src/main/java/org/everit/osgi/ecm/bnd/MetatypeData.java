@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The configuration metadata of an ECM component that is necessary to generate its MetaType
+ * descriptor. The label and the description are kept as they are specified in the annotations,
+ * so they are localized by the MetaType service at runtime instead of the build.
+ */
+public class MetatypeData {
+
+  private List<AttributeData> attributes = new ArrayList<>();
+
+  private String description;
+
+  private boolean factory;
+
+  private String label;
+
+  private String localizationBase;
+
+  private String pid;
+
+  public List<AttributeData> getAttributes() {
+    return attributes;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * The label of the component as it is specified in the Component annotation.
+   *
+   * @return The label or <code>null</code> if the component id is used as the label.
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * The base name of the localization files of the component.
+   *
+   * @return The base name or <code>null</code> if the component is not localized.
+   */
+  public String getLocalizationBase() {
+    return localizationBase;
+  }
+
+  /**
+   * The configuration PID of the component that is used as the id of the object class definition
+   * and as the (factory) PID of the designation.
+   *
+   * @return The configuration PID, which is the component id if the Component annotation does not
+   *         specify one.
+   */
+  public String getPid() {
+    return pid;
+  }
+
+  /**
+   * Whether the component is instantiated for factory configurations, so the descriptor
+   * designates a factory PID.
+   */
+  public boolean isFactory() {
+    return factory;
+  }
+
+  public void setAttributes(final List<AttributeData> attributes) {
+    this.attributes = attributes;
+  }
+
+  public void setDescription(final String description) {
+    this.description = description;
+  }
+
+  public void setFactory(final boolean factory) {
+    this.factory = factory;
+  }
+
+  public void setLabel(final String label) {
+    this.label = label;
+  }
+
+  public void setLocalizationBase(final String localizationBase) {
+    this.localizationBase = localizationBase;
+  }
+
+  public void setPid(final String pid) {
+    this.pid = pid;
+  }
+
+}
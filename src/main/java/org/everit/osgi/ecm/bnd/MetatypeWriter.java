@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes the OSGi MetaType descriptor of an ECM component, so the MetaType information is
+ * available without loading the component class. The object class definition and the designation
+ * use the configuration PID of the component as id and (factory) PID. The attributes contain the
+ * <code>&lt;referenceId&gt;.target</code> attributes of the references as well. The labels and
+ * descriptions are written as they are specified in the annotations together with the
+ * localization base of the component, so the MetaType service localizes them at runtime.
+ */
+final class MetatypeWriter {
+
+  /**
+   * The directory of the MetaType descriptors within the bundle.
+   */
+  public static final String DIRECTORY = "OSGI-INF/metatype/";
+
+  public static final String XML_NAMESPACE = "http://www.osgi.org/xmlns/metatype/v1.2.0";
+
+  /**
+   * The cardinality of the multiple value attributes: an array with unlimited length.
+   */
+  private static final int MULTIPLE_CARDINALITY = Integer.MAX_VALUE;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static void attribute(final StringBuilder sb, final String name, final String value) {
+    if (value == null) {
+      return;
+    }
+    sb.append(' ').append(name).append("=\"");
+    RepositoryIndexWriter.escape(sb, value);
+    sb.append('"');
+  }
+
+  /**
+   * Joins the default values of an attribute with commas. The commas and backslashes within the
+   * values are escaped with a backslash as the MetaType specification requires.
+   */
+  private static String defaultValue(final List<String> defaultValues) {
+    if (defaultValues.isEmpty()) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String defaultValue : defaultValues) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      for (int i = 0, n = defaultValue.length(); i < n; i++) {
+        char c = defaultValue.charAt(i);
+        if (c == ',' || c == '\\') {
+          sb.append('\\');
+        }
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The path of the MetaType descriptor of a component within the bundle.
+   *
+   * @param componentId
+   *          The id of the component.
+   * @return The path of the descriptor.
+   */
+  public static String path(final String componentId) {
+    return DIRECTORY + componentId + ".xml";
+  }
+
+  /**
+   * Creates the MetaType descriptor of a component.
+   *
+   * @param componentData
+   *          The component. The configuration metadata of the component must not be
+   *          <code>null</code>.
+   * @return The UTF-8 encoded content of the descriptor.
+   */
+  public static byte[] write(final ComponentData componentData) {
+    MetatypeData metatypeData = componentData.getMetatype();
+    String componentId = componentData.getComponentId();
+    String pid = metatypeData.getPid();
+    StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<metatype:MetaData");
+    attribute(sb, "xmlns:metatype", XML_NAMESPACE);
+    attribute(sb, "localization", metatypeData.getLocalizationBase());
+    sb.append(">\n");
+
+    sb.append("  <OCD");
+    attribute(sb, "id", pid);
+    String label = metatypeData.getLabel();
+    attribute(sb, "name", (label != null) ? label : componentId);
+    attribute(sb, "description", metatypeData.getDescription());
+    sb.append(">\n");
+    for (AttributeData attributeData : metatypeData.getAttributes()) {
+      sb.append("    <AD");
+      attribute(sb, "id", attributeData.getAttributeId());
+      attribute(sb, "type", attributeData.getType());
+      String attributeLabel = attributeData.getLabel();
+      attribute(sb, "name",
+          (attributeLabel != null) ? attributeLabel : attributeData.getAttributeId());
+      attribute(sb, "description", attributeData.getDescription());
+      attribute(sb, "default", defaultValue(attributeData.getDefaultValues()));
+      if (attributeData.isMultiple()) {
+        attribute(sb, "cardinality", String.valueOf(MULTIPLE_CARDINALITY));
+      }
+      attribute(sb, "required", String.valueOf(!attributeData.isOptional()));
+      sb.append("/>\n");
+    }
+    sb.append("  </OCD>\n");
+
+    sb.append("  <Designate");
+    attribute(sb, metatypeData.isFactory() ? "factoryPid" : "pid", pid);
+    sb.append(">\n");
+    sb.append("    <Object");
+    attribute(sb, "ocdref", pid);
+    sb.append("/>\n");
+    sb.append("  </Designate>\n");
+    sb.append("</metatype:MetaData>\n");
+    return sb.toString().getBytes(UTF_8);
+  }
+
+  private MetatypeWriter() {
+  }
+}
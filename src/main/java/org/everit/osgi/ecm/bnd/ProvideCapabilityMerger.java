@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.OSGiHeader;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.osgi.Analyzer;
+
+/**
+ * Merges the capabilities of the ECM components into the Provide-Capability header that is
+ * already configured for the bundle (e.g. in the bnd file or by other plugins). The existing
+ * header is parsed once and the result is serialized once, together with the generated clauses.
+ */
+class ProvideCapabilityMerger {
+
+  /**
+   * Decides which clauses are kept if the existing header already contains capabilities of a
+   * component that is generated by the plugin.
+   */
+  enum ConflictPolicy {
+
+    /**
+     * The existing capabilities of the component are kept and the generated ones are dropped.
+     */
+    EXISTING,
+
+    /**
+     * The existing capabilities of the component are replaced by the generated ones.
+     */
+    GENERATED
+  }
+
+  private static final String NAMESPACE_COMPONENT = "org.everit.osgi.ecm.component";
+
+  private static final String NAMESPACE_SERVICE = "osgi.service";
+
+  private static String componentIdOf(final String namespace, final Attrs attrs) {
+    if (NAMESPACE_COMPONENT.equals(namespace)) {
+      return attrs.get("componentId");
+    }
+    if (NAMESPACE_SERVICE.equals(namespace)) {
+      return attrs.get("org.everit.osgi.ecm.component.id");
+    }
+    return null;
+  }
+
+  /**
+   * Removes the <code>~</code> characters that bnd appends to the repeated keys of a header.
+   */
+  static String removeDuplicateMarker(final String key) {
+    int end = key.length();
+    while (end > 0 && key.charAt(end - 1) == '~') {
+      end--;
+    }
+    return key.substring(0, end);
+  }
+
+  private final Analyzer analyzer;
+
+  private final boolean byNamespace;
+
+  private final boolean compact;
+
+  private final Set<String> componentAttributes;
+
+  private final ConflictPolicy conflictPolicy;
+
+  ProvideCapabilityMerger(final Analyzer analyzer, final ConflictPolicy conflictPolicy) {
+    this(analyzer, conflictPolicy, false, CapabilityHeaderWriter.OPTIONAL_COMPONENT_ATTRIBUTES,
+        false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param analyzer
+   *          The Analyzer that parses the existing header and logs the conflicts.
+   * @param conflictPolicy
+   *          Decides which clauses are kept if a component has existing and generated clauses.
+   * @param compact
+   *          Whether the generated clauses are written in the compact mode of
+   *          {@link CapabilityHeaderWriter}.
+   * @param componentAttributes
+   *          The optional attributes of the generated component clauses that are written.
+   * @param byNamespace
+   *          Whether the generated clauses are grouped by namespace, see
+   *          {@link CapabilityHeaderWriter#writeByNamespace(java.util.Collection)}.
+   */
+  ProvideCapabilityMerger(final Analyzer analyzer, final ConflictPolicy conflictPolicy,
+      final boolean compact, final Set<String> componentAttributes, final boolean byNamespace) {
+    this.analyzer = analyzer;
+    this.byNamespace = byNamespace;
+    this.conflictPolicy = conflictPolicy;
+    this.compact = compact;
+    this.componentAttributes = componentAttributes;
+  }
+
+  /**
+   * Creates the Provide-Capability header that contains the existing and the generated clauses.
+   * The existing clauses come first in their original order, followed by the generated ones.
+   *
+   * @param existingHeader
+   *          The existing header or <code>null</code>.
+   * @param components
+   *          The components that were found in the jar.
+   * @return The merged header.
+   */
+  public String merge(final String existingHeader, final List<ComponentData> components) {
+    int estimatedLength = CapabilityHeaderWriter.estimateLength(components);
+    if (existingHeader == null || "".equals(existingHeader.trim())) {
+      StringBuilder sb = new StringBuilder(estimatedLength);
+      writeGenerated(new CapabilityHeaderWriter(sb, compact, componentAttributes), components);
+      return sb.toString();
+    }
+
+    Parameters existingCapabilities = OSGiHeader.parseHeader(existingHeader, analyzer);
+    Set<String> generatedComponentIds = new HashSet<>();
+    for (ComponentData componentData : components) {
+      generatedComponentIds.add(componentData.getComponentId());
+    }
+
+    StringBuilder sb = new StringBuilder(estimatedLength + existingHeader.length());
+    CapabilityHeaderWriter capabilityHeaderWriter =
+        new CapabilityHeaderWriter(sb, compact, componentAttributes);
+    Set<String> conflictingComponentIds = new HashSet<>();
+    for (Entry<String, Attrs> entry : existingCapabilities.entrySet()) {
+      String namespace = removeDuplicateMarker(entry.getKey());
+      Attrs attrs = entry.getValue();
+      String componentId = componentIdOf(namespace, attrs);
+      if (componentId != null && generatedComponentIds.contains(componentId)) {
+        conflictingComponentIds.add(componentId);
+        if (conflictPolicy == ConflictPolicy.GENERATED) {
+          continue;
+        }
+      }
+      capabilityHeaderWriter.writeClause(namespace, attrs);
+    }
+
+    List<ComponentData> generatedComponents = new ArrayList<>(components.size());
+    for (ComponentData componentData : components) {
+      String componentId = componentData.getComponentId();
+      boolean conflicting = conflictingComponentIds.contains(componentId);
+      if (conflicting) {
+        analyzer.trace("Provide-Capability of ECM component %s is already configured, keeping"
+            + " the %s clauses", componentId, conflictPolicy);
+      }
+      if (!conflicting || conflictPolicy == ConflictPolicy.GENERATED) {
+        generatedComponents.add(componentData);
+      }
+    }
+    writeGenerated(capabilityHeaderWriter, generatedComponents);
+    return sb.toString();
+  }
+
+  private void writeGenerated(final CapabilityHeaderWriter capabilityHeaderWriter,
+      final List<ComponentData> components) {
+    if (byNamespace) {
+      capabilityHeaderWriter.writeByNamespace(components);
+    } else {
+      for (ComponentData componentData : components) {
+        capabilityHeaderWriter.write(componentData);
+      }
+    }
+  }
+}
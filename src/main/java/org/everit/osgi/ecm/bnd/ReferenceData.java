@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+/**
+ * The statically known data of a service or bundle capability reference of an ECM component that
+ * is necessary to generate the Require-Capability MANIFEST header.
+ */
+public class ReferenceData {
+
+  private String interfaceName;
+
+  private boolean multiple;
+
+  private String namespace;
+
+  private boolean optional;
+
+  private String referenceId;
+
+  /**
+   * The referenced service interface.
+   *
+   * @return The name of the interface or <code>null</code> if the reference is a bundle capability
+   *         reference.
+   */
+  public String getInterfaceName() {
+    return interfaceName;
+  }
+
+  /**
+   * The namespace of the referenced capabilities: <code>osgi.service</code> for service references
+   * or the namespace of a bundle capability reference.
+   */
+  public String getNamespace() {
+    return namespace;
+  }
+
+  public String getReferenceId() {
+    return referenceId;
+  }
+
+  public boolean isMultiple() {
+    return multiple;
+  }
+
+  public boolean isOptional() {
+    return optional;
+  }
+
+  public void setInterfaceName(final String interfaceName) {
+    this.interfaceName = interfaceName;
+  }
+
+  public void setMultiple(final boolean multiple) {
+    this.multiple = multiple;
+  }
+
+  public void setNamespace(final String namespace) {
+    this.namespace = namespace;
+  }
+
+  public void setOptional(final boolean optional) {
+    this.optional = optional;
+  }
+
+  public void setReferenceId(final String referenceId) {
+    this.referenceId = referenceId;
+  }
+
+}
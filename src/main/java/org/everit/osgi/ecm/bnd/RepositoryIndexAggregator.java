@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Concatenates the repository fragments that are written by the plugin due to the
+ * {@link ECMInstructions#REPOSITORY_FRAGMENT} instruction into one OSGi repository index. The
+ * fragments are copied as they are, without parsing them. The plugin cannot calculate the digest
+ * of the bundle, as the bundle is written after the analysis, so the <code>osgi.content</code>
+ * capability is inserted by the aggregator if the bundles of the fragments are passed.
+ */
+public final class RepositoryIndexAggregator {
+
+  /**
+   * Writes an OSGi repository index that contains the resources of the fragments without
+   * <code>osgi.content</code> capabilities.
+   *
+   * @param fragments
+   *          The fragment files.
+   * @param name
+   *          The name of the repository.
+   * @param increment
+   *          The increment of the repository, e.g. the time of the generation.
+   * @param writer
+   *          The writer of the index, it is not closed by this method.
+   * @throws IOException
+   *           if a fragment cannot be read or the index cannot be written.
+   */
+  public static void aggregate(final List<File> fragments, final String name,
+      final long increment, final Writer writer) throws IOException {
+    aggregate(fragments, null, name, increment, writer);
+  }
+
+  /**
+   * Writes an OSGi repository index that contains the resources of the fragments with the
+   * <code>osgi.content</code> capabilities of the bundles.
+   *
+   * @param fragments
+   *          The fragment files.
+   * @param bundles
+   *          The bundle of every fragment in the same order as the fragments or <code>null</code>
+   *          if the content capabilities are not written.
+   * @param name
+   *          The name of the repository.
+   * @param increment
+   *          The increment of the repository, e.g. the time of the generation.
+   * @param writer
+   *          The writer of the index, it is not closed by this method.
+   * @throws IOException
+   *           if a fragment or a bundle cannot be read or the index cannot be written.
+   */
+  public static void aggregate(final List<File> fragments, final List<File> bundles,
+      final String name, final long increment, final Writer writer) throws IOException {
+    if (bundles != null && bundles.size() != fragments.size()) {
+      throw new IllegalArgumentException("The number of bundles (" + bundles.size()
+          + ") differs from the number of fragments (" + fragments.size() + ")");
+    }
+    writer.write(RepositoryIndexWriter.repositoryStart(name, increment));
+    StringBuilder sb = new StringBuilder();
+    RepositoryIndexWriter repositoryIndexWriter = new RepositoryIndexWriter(sb);
+    for (int i = 0, n = fragments.size(); i < n; i++) {
+      String fragment = new String(Files.readAllBytes(fragments.get(i).toPath()),
+          StandardCharsets.UTF_8);
+      if (bundles == null) {
+        writer.write(fragment);
+        continue;
+      }
+      // The first line of a fragment is the opening tag of the resource element
+      int resourceStartEnd = fragment.indexOf('\n') + 1;
+      writer.write(fragment, 0, resourceStartEnd);
+      File bundle = bundles.get(i);
+      sb.setLength(0);
+      repositoryIndexWriter.writeContentCapability(Digests.sha256(bundle),
+          bundle.toURI().toString(), bundle.length());
+      writer.append(sb);
+      writer.write(fragment, resourceStartEnd, fragment.length() - resourceStartEnd);
+    }
+    writer.write(RepositoryIndexWriter.repositoryEnd());
+  }
+
+  private RepositoryIndexAggregator() {
+  }
+}
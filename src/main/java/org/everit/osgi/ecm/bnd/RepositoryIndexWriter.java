@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.Map;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.OSGiHeader;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.version.Version;
+
+/**
+ * Writes the resources of an OSGi repository index (the XML format of the OSGi Repository Service
+ * Specification) into a {@link StringBuilder}. The capabilities and requirements of a bundle are
+ * taken from its Provide-Capability and Require-Capability headers, so the ECM capabilities have
+ * the same attributes in the index as in the MANIFEST.
+ */
+class RepositoryIndexWriter {
+
+  private static final String CONTENT_MIME_TYPE = "application/vnd.osgi.bundle";
+
+  private static final String INDENT_ATTRIBUTE = "      ";
+
+  private static final String INDENT_CAPABILITY = "    ";
+
+  private static final String INDENT_RESOURCE = "  ";
+
+  public static final String XML_NAMESPACE = "http://www.osgi.org/xmlns/repository/v1.0.0";
+
+  private final StringBuilder sb;
+
+  RepositoryIndexWriter(final StringBuilder sb) {
+    this.sb = sb;
+  }
+
+  /**
+   * The closing tag of the repository element.
+   */
+  public static String repositoryEnd() {
+    return "</repository>\n";
+  }
+
+  /**
+   * The XML declaration and the opening tag of the repository element.
+   *
+   * @param name
+   *          The name of the repository.
+   * @param increment
+   *          The increment of the repository, e.g. the time of the generation.
+   */
+  public static String repositoryStart(final String name, final long increment) {
+    StringBuilder result = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    result.append("<repository xmlns=\"").append(XML_NAMESPACE).append("\" name=\"");
+    escape(result, name);
+    return result.append("\" increment=\"").append(increment).append("\">\n").toString();
+  }
+
+  /**
+   * Appends a value to an XML attribute or text with the special characters escaped.
+   */
+  static void escape(final StringBuilder out, final String value) {
+    for (int i = 0, n = value.length(); i < n; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '&':
+          out.append("&amp;");
+          break;
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '"':
+          out.append("&quot;");
+          break;
+        default:
+          if (c < ' ') {
+            out.append("&#").append((int) c).append(';');
+          } else {
+            out.append(c);
+          }
+      }
+    }
+  }
+
+  private void attribute(final String name, final String type, final String value) {
+    sb.append(INDENT_ATTRIBUTE).append("<attribute name=\"");
+    escape(sb, name);
+    sb.append('"');
+    if (type != null) {
+      sb.append(" type=\"");
+      escape(sb, type);
+      sb.append('"');
+    }
+    sb.append(" value=\"");
+    escape(sb, value);
+    sb.append("\"/>\n");
+  }
+
+  private void capabilityEnd() {
+    sb.append(INDENT_CAPABILITY).append("</capability>\n");
+  }
+
+  private void capabilityStart(final String namespace) {
+    sb.append(INDENT_CAPABILITY).append("<capability namespace=\"");
+    escape(sb, namespace);
+    sb.append("\">\n");
+  }
+
+  private void directive(final String name, final String value) {
+    sb.append(INDENT_ATTRIBUTE).append("<directive name=\"");
+    escape(sb, name);
+    sb.append("\" value=\"");
+    escape(sb, value);
+    sb.append("\"/>\n");
+  }
+
+  /**
+   * Closes the resource element.
+   */
+  public void resourceEnd() {
+    sb.append(INDENT_RESOURCE).append("</resource>\n");
+  }
+
+  /**
+   * Opens a resource element.
+   */
+  public void resourceStart() {
+    sb.append(INDENT_RESOURCE).append("<resource>\n");
+  }
+
+  /**
+   * Writes the capabilities of a Provide-Capability header.
+   *
+   * @param header
+   *          The header or <code>null</code> if the bundle does not provide capabilities.
+   */
+  public void writeCapabilities(final String header) {
+    writeClauses("capability", header);
+  }
+
+  private void writeClauses(final String elementName, final String header) {
+    if (header == null || "".equals(header.trim())) {
+      return;
+    }
+    Parameters clauses = OSGiHeader.parseHeader(header);
+    for (Map.Entry<String, Attrs> clause : clauses.entrySet()) {
+      sb.append(INDENT_CAPABILITY).append('<').append(elementName).append(" namespace=\"");
+      escape(sb, ProvideCapabilityMerger.removeDuplicateMarker(clause.getKey()));
+      sb.append("\">\n");
+      Attrs attrs = clause.getValue();
+      for (String key : attrs.keySet()) {
+        if (key.endsWith(":")) {
+          directive(key.substring(0, key.length() - 1), attrs.get(key));
+        } else {
+          Attrs.Type type = attrs.getType(key);
+          attribute(key, (type == Attrs.Type.STRING) ? null : type.toString(), attrs.get(key));
+        }
+      }
+      sb.append(INDENT_CAPABILITY).append("</").append(elementName).append(">\n");
+    }
+  }
+
+  /**
+   * Writes the <code>osgi.content</code> capability of a bundle.
+   *
+   * @param sha256
+   *          The hexadecimal SHA-256 digest of the bundle.
+   * @param url
+   *          The URL of the bundle.
+   * @param size
+   *          The size of the bundle in bytes.
+   */
+  public void writeContentCapability(final String sha256, final String url, final long size) {
+    capabilityStart("osgi.content");
+    attribute("osgi.content", null, sha256);
+    attribute("url", null, url);
+    attribute("size", "Long", String.valueOf(size));
+    attribute("mime", null, CONTENT_MIME_TYPE);
+    capabilityEnd();
+  }
+
+  /**
+   * Writes the <code>osgi.identity</code> capability of a bundle.
+   */
+  public void writeIdentityCapability(final String bundleSymbolicName, final Version version) {
+    capabilityStart("osgi.identity");
+    attribute("osgi.identity", null, bundleSymbolicName);
+    attribute("type", null, "osgi.bundle");
+    attribute("version", "Version", version.toString());
+    capabilityEnd();
+  }
+
+  /**
+   * Writes the requirements of a Require-Capability header.
+   *
+   * @param header
+   *          The header or <code>null</code> if the bundle does not have requirements.
+   */
+  public void writeRequirements(final String header) {
+    writeClauses("requirement", header);
+  }
+}
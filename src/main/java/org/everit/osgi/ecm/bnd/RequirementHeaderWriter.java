@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import aQute.bnd.header.OSGiHeader;
+
+/**
+ * Writes the Require-Capability clauses of the references of ECM components directly into a
+ * buffer. The requirements have <code>effective:=active</code>, so they are not enforced by the
+ * framework resolver, but resolvers that work with active requirements (e.g. the bnd resolver)
+ * can check in advance that the referenced services and capabilities are available. Every clause
+ * is written only once, even if several components have the same reference.
+ *
+ * <p>
+ * The default filters of the references are not written, as the
+ * <code>&lt;referenceId&gt;.target</code> configuration attribute can replace them at runtime. A
+ * service requirement only filters on the <code>objectClass</code> of the reference and a bundle
+ * capability requirement on the namespace.
+ */
+class RequirementHeaderWriter {
+
+  private final StringBuilder clauseSB = new StringBuilder();
+
+  private final StringBuilder sb;
+
+  private final Set<String> writtenClauses = new HashSet<>();
+
+  /**
+   * Constructor.
+   *
+   * @param sb
+   *          The buffer that the clauses are appended to. If the buffer is not empty, the first
+   *          clause is separated by a comma from the existing content.
+   */
+  RequirementHeaderWriter(final StringBuilder sb) {
+    this.sb = sb;
+  }
+
+  private void directive(final String key, final String value) {
+    clauseSB.append(';').append(key).append(":=");
+    try {
+      OSGiHeader.quote(clauseSB, value);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the requirements of the references of a component.
+   *
+   * @param componentData
+   *          The data of the component.
+   */
+  public void write(final ComponentData componentData) {
+    for (ReferenceData referenceData : componentData.getReferences()) {
+      write(referenceData);
+    }
+  }
+
+  private void write(final ReferenceData referenceData) {
+    clauseSB.setLength(0);
+    clauseSB.append(referenceData.getNamespace());
+    String interfaceName = referenceData.getInterfaceName();
+    if (interfaceName != null) {
+      directive("filter", "(objectClass=" + interfaceName + ")");
+    }
+    directive("effective", "active");
+    if (referenceData.isOptional()) {
+      directive("resolution", "optional");
+    }
+    if (referenceData.isMultiple()) {
+      directive("cardinality", "multiple");
+    }
+
+    String clause = clauseSB.toString();
+    if (!writtenClauses.add(clause)) {
+      return;
+    }
+    if (sb.length() > 0) {
+      sb.append(',');
+    }
+    sb.append(clause);
+  }
+
+  /**
+   * Writes the requirements of the references of components.
+   *
+   * @param components
+   *          The data of the components.
+   */
+  public void writeAll(final Collection<ComponentData> components) {
+    for (ComponentData componentData : components) {
+      write(componentData);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import aQute.bnd.version.Version;
+
+/**
+ * A service property with a statically known value that is added as a typed attribute to the
+ * <code>osgi.service</code> capabilities of a component, so LDAP filters on the property can be
+ * evaluated without starting the bundle.
+ */
+public class ServicePropertyData {
+
+  private static final Pattern ATTRIBUTE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.\\-]+");
+
+  /**
+   * The names of the properties that are set by the framework or written by the plugin itself.
+   */
+  private static final Set<String> RESERVED_NAMES = Collections.unmodifiableSet(
+      new HashSet<>(Arrays.asList("objectClass", "org.everit.osgi.ecm.component.id",
+          "org.everit.osgi.ecm.component.version", "service.bundleid", "service.id",
+          "service.scope")));
+
+  public static final String TYPE_DOUBLE = "Double";
+
+  public static final String TYPE_LONG = "Long";
+
+  public static final String TYPE_STRING = "String";
+
+  public static final String TYPE_VERSION = "Version";
+
+  private String name;
+
+  private String type = TYPE_STRING;
+
+  private List<String> values = new ArrayList<>();
+
+  /**
+   * The type of the capability attribute: the scalar type for a single value, otherwise the list
+   * of the scalar type, e.g. <code>List&lt;Long&gt;</code>.
+   */
+  public String getAttributeType() {
+    if (values.size() == 1) {
+      return type;
+    }
+    return "List<" + type + ">";
+  }
+
+  /**
+   * The value of the capability attribute. The values of a list are separated by commas, and
+   * the commas and backslashes within the values are escaped with a backslash.
+   */
+  public String getAttributeValue() {
+    if (values.size() == 1) {
+      return values.get(0);
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String value : values) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      for (int i = 0, n = value.length(); i < n; i++) {
+        char c = value.charAt(i);
+        if (c == ',' || c == '\\') {
+          sb.append('\\');
+        }
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Checks whether the property can be written as a capability attribute.
+   *
+   * @return The reason why the property cannot be written or <code>null</code> if it can be
+   *         written.
+   */
+  public String getCapabilityAttributeProblem() {
+    if (name == null || !ATTRIBUTE_NAME_PATTERN.matcher(name).matches()) {
+      return "the name is not a valid attribute name";
+    }
+    if (RESERVED_NAMES.contains(name)) {
+      return "the name is reserved";
+    }
+    if (values.isEmpty()) {
+      return "the property does not have a value";
+    }
+    for (String value : values) {
+      try {
+        if (TYPE_DOUBLE.equals(type)) {
+          Double.parseDouble(value);
+        } else if (TYPE_LONG.equals(type)) {
+          Long.parseLong(value);
+        } else if (TYPE_VERSION.equals(type)) {
+          new Version(value);
+        }
+      } catch (IllegalArgumentException e) {
+        return "value " + value + " is not a valid " + type;
+      }
+    }
+    return null;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The scalar type of the property: {@link #TYPE_STRING}, {@link #TYPE_LONG},
+   * {@link #TYPE_DOUBLE} or {@link #TYPE_VERSION}.
+   */
+  public String getType() {
+    return type;
+  }
+
+  public List<String> getValues() {
+    return values;
+  }
+
+  public void setName(final String name) {
+    this.name = name;
+  }
+
+  public void setType(final String type) {
+    this.type = type;
+  }
+
+  public void setValues(final List<String> values) {
+    this.values = values;
+  }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.RetentionPolicy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Annotation;
+import aQute.bnd.osgi.ClassDataCollector;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.bnd.osgi.Instruction;
+import aQute.bnd.osgi.Instructions;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+import aQute.bnd.osgi.URLResource;
+
+/**
+ * Resolves stereotype annotations: annotation types that are annotated with the ECM
+ * <code>Component</code>, <code>Service</code> or <code>ManualServices</code> annotations or
+ * with other stereotypes. The effective ECM annotations of every annotation type are resolved only
+ * once per analysis. The annotation types that come from the classpath or from the JDK are also
+ * cached in a JVM wide LRU cache, keyed by the location of their class files, so they are read
+ * only once in a workspace or reactor build, even if they turn out not to be stereotypes.
+ *
+ * <p>
+ * The instance must be used by the thread that analyzes the jar, as it creates type references
+ * with the {@link Analyzer}.
+ */
+class StereotypeResolver {
+
+  /**
+   * The analyzer independent form of an annotation.
+   */
+  private static final class AnnotationTemplate {
+
+    private final String binaryName;
+
+    private final Map<String, Object> elements;
+
+    private final RetentionPolicy retentionPolicy;
+
+    AnnotationTemplate(final Annotation annotation) {
+      this.binaryName = annotation.getName().getBinary();
+      this.retentionPolicy = annotation.getRetentionPolicy();
+      Map<String, Object> elements = new LinkedHashMap<>();
+      for (String key : annotation.keySet()) {
+        elements.put(key, toTemplateValue(annotation.get(key)));
+      }
+      this.elements = elements;
+    }
+
+    Annotation toAnnotation(final Analyzer analyzer) {
+      Map<String, Object> annotationElements = null;
+      if (!elements.isEmpty()) {
+        annotationElements = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> element : elements.entrySet()) {
+          annotationElements.put(element.getKey(), toAnnotationValue(element.getValue(), analyzer));
+        }
+      }
+      return new Annotation(analyzer.getTypeRef(binaryName), annotationElements,
+          ElementType.TYPE, retentionPolicy);
+    }
+  }
+
+  /**
+   * The analyzer independent form of a class element value.
+   */
+  private static final class ClassValue {
+
+    private final String binaryName;
+
+    ClassValue(final String binaryName) {
+      this.binaryName = binaryName;
+    }
+  }
+
+  /**
+   * The effective ECM annotations of an annotation type.
+   */
+  static final class Stereotype {
+
+    private final List<AnnotationTemplate> annotations = new ArrayList<>();
+
+    private final Set<String> dependencyPaths = new LinkedHashSet<>();
+
+    /**
+     * The paths of the class files of the annotation type and its meta-annotations that the
+     * resolution depends on.
+     */
+    public Set<String> getDependencyPaths() {
+      return Collections.unmodifiableSet(dependencyPaths);
+    }
+
+    /**
+     * Creates the effective ECM annotations with the type references of the Analyzer.
+     */
+    public List<Annotation> getEffectiveAnnotations(final Analyzer analyzer) {
+      List<Annotation> result = new ArrayList<>(annotations.size());
+      for (AnnotationTemplate annotationTemplate : annotations) {
+        result.add(annotationTemplate.toAnnotation(analyzer));
+      }
+      return result;
+    }
+
+    public boolean isEmpty() {
+      return annotations.isEmpty();
+    }
+  }
+
+  private static final Set<String> ECM_ANNOTATIONS = new HashSet<>(Arrays.asList(
+      "org/everit/osgi/ecm/annotation/Component", "org/everit/osgi/ecm/annotation/ManualServices",
+      "org/everit/osgi/ecm/annotation/Service"));
+
+  private static final Stereotype EMPTY_STEREOTYPE = new Stereotype();
+
+  private static final int MAX_SHARED_SIZE = 4096;
+
+  private static final Map<String, Stereotype> SHARED_STEREOTYPES =
+      new LinkedHashMap<String, Stereotype>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Stereotype> eldest) {
+          return size() > MAX_SHARED_SIZE;
+        }
+      };
+
+  private final Analyzer analyzer;
+
+  private final Instructions candidates;
+
+  private final Map<String, Stereotype> stereotypes = new HashMap<>();
+
+  private final AnalysisStatistics statistics;
+
+  private final Set<String> typesInProgress = new HashSet<>();
+
+  StereotypeResolver(final Analyzer analyzer, final Instructions candidates,
+      final AnalysisStatistics statistics) {
+    this.analyzer = analyzer;
+    this.candidates = candidates;
+    this.statistics = statistics;
+  }
+
+  /**
+   * Creates a resolver based on the {@link ECMInstructions#STEREOTYPES} instruction.
+   *
+   * @return The resolver or <code>null</code> if the instruction is not specified.
+   */
+  static StereotypeResolver create(final Analyzer analyzer, final AnalysisStatistics statistics) {
+    String stereotypes = analyzer.getProperty(ECMInstructions.STEREOTYPES);
+    if (stereotypes == null || "".equals(stereotypes.trim())) {
+      return null;
+    }
+    return new StereotypeResolver(analyzer, new Instructions(stereotypes), statistics);
+  }
+
+  private static Object toAnnotationValue(final Object templateValue, final Analyzer analyzer) {
+    if (templateValue instanceof ClassValue) {
+      return analyzer.getTypeRef(((ClassValue) templateValue).binaryName);
+    }
+    if (templateValue instanceof AnnotationTemplate) {
+      return ((AnnotationTemplate) templateValue).toAnnotation(analyzer);
+    }
+    if (templateValue instanceof Object[]) {
+      Object[] templateValues = (Object[]) templateValue;
+      Object[] result = new Object[templateValues.length];
+      for (int i = 0; i < templateValues.length; i++) {
+        result[i] = toAnnotationValue(templateValues[i], analyzer);
+      }
+      return result;
+    }
+    return templateValue;
+  }
+
+  private static Object toTemplateValue(final Object annotationValue) {
+    if (annotationValue instanceof TypeRef) {
+      return new ClassValue(((TypeRef) annotationValue).getBinary());
+    }
+    if (annotationValue instanceof Annotation) {
+      return new AnnotationTemplate((Annotation) annotationValue);
+    }
+    if (annotationValue instanceof Object[]) {
+      Object[] annotationValues = (Object[]) annotationValue;
+      Object[] result = new Object[annotationValues.length];
+      for (int i = 0; i < annotationValues.length; i++) {
+        result[i] = toTemplateValue(annotationValues[i]);
+      }
+      return result;
+    }
+    return annotationValue;
+  }
+
+  /**
+   * Checks whether an annotation can be a stereotype based on the
+   * {@link ECMInstructions#STEREOTYPES} instruction. Only the candidates are resolved.
+   *
+   * @param annotationFQN
+   *          The fully qualified name of the annotation type.
+   */
+  public boolean isCandidate(final String annotationFQN) {
+    Instruction instruction = candidates.matcher(annotationFQN);
+    return instruction != null && !instruction.isNegated();
+  }
+
+  /**
+   * Checks whether a class has an annotation that can be a stereotype, based on the annotations
+   * that bnd collected during the analysis of the jar.
+   */
+  public boolean isStereotypeAnnotated(final Clazz clazz) throws Exception {
+    for (Instruction instruction : candidates.keySet()) {
+      if (!instruction.isNegated() && clazz.is(Clazz.QUERY.ANNOTATED, instruction, analyzer)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private byte[] readBytes(final Resource resource) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    try (InputStream in = resource.openInputStream()) {
+      int r = in.read(buffer);
+      while (r >= 0) {
+        out.write(buffer, 0, r);
+        r = in.read(buffer);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Resolves the effective ECM annotations of an annotation type.
+   *
+   * @param annotationType
+   *          The type of the annotation.
+   * @return The stereotype, never <code>null</code>. If the annotation type is not a stereotype
+   *         or it cannot be found, the returned stereotype is empty.
+   * @throws Exception
+   *           if the class file of the annotation type cannot be read.
+   */
+  public Stereotype resolve(final TypeRef annotationType) throws Exception {
+    String binaryName = annotationType.getBinary();
+    Stereotype stereotype = stereotypes.get(binaryName);
+    if (stereotype != null) {
+      return stereotype;
+    }
+    if (!typesInProgress.add(binaryName)) {
+      return EMPTY_STEREOTYPE;
+    }
+    try {
+      stereotype = resolveUncached(annotationType);
+      stereotypes.put(binaryName, stereotype);
+      return stereotype;
+    } finally {
+      typesInProgress.remove(binaryName);
+    }
+  }
+
+  /**
+   * Finds the class file of an annotation type in the analyzed jar, on the classpath or with the
+   * system class loader, checks the shared cache for the types outside of the analyzed jar and
+   * reads the annotations of the annotation type if necessary.
+   */
+  private Stereotype resolveUncached(final TypeRef annotationType) throws Exception {
+    String path = annotationType.getPath();
+    Resource resource = analyzer.getJar().getResource(path);
+    String sharedKey = null;
+    if (resource == null) {
+      for (Jar jar : analyzer.getClasspath()) {
+        resource = jar.getResource(path);
+        if (resource != null) {
+          File source = jar.getSource();
+          if (source != null) {
+            sharedKey = source.getAbsolutePath() + '!' + path + '@' + resource.lastModified();
+          }
+          break;
+        }
+      }
+      if (resource == null) {
+        sharedKey = "system!" + path;
+        URL url = ClassLoader.getSystemResource(path);
+        if (url != null) {
+          resource = new URLResource(url);
+        }
+      }
+    }
+    if (sharedKey != null) {
+      synchronized (SHARED_STEREOTYPES) {
+        Stereotype stereotype = SHARED_STEREOTYPES.get(sharedKey);
+        if (stereotype != null) {
+          return stereotype;
+        }
+      }
+    }
+
+    Stereotype stereotype = new Stereotype();
+    stereotype.dependencyPaths.add(path);
+    if (resource != null) {
+      statistics.increment(AnalysisStatistics.Counter.STEREOTYPES_RESOLVED);
+      for (Annotation metaAnnotation : scanTypeAnnotations(annotationType, path, resource)) {
+        TypeRef metaAnnotationType = metaAnnotation.getName();
+        String metaAnnotationBinaryName = metaAnnotationType.getBinary();
+        if (ECM_ANNOTATIONS.contains(metaAnnotationBinaryName)) {
+          stereotype.annotations.add(new AnnotationTemplate(metaAnnotation));
+        } else if (!metaAnnotationType.isJava()) {
+          Stereotype metaStereotype = resolve(metaAnnotationType);
+          stereotype.annotations.addAll(metaStereotype.annotations);
+          stereotype.dependencyPaths.addAll(metaStereotype.dependencyPaths);
+        }
+      }
+    }
+
+    if (sharedKey != null) {
+      synchronized (SHARED_STEREOTYPES) {
+        SHARED_STEREOTYPES.put(sharedKey, stereotype);
+      }
+    }
+    return stereotype;
+  }
+
+  private List<Annotation> scanTypeAnnotations(final TypeRef annotationType, final String path,
+      final Resource resource) throws Exception {
+    final List<Annotation> result = new ArrayList<>();
+    Clazz annotationClazz = new Clazz(analyzer, path, resource);
+    new ClassAnnotationScanner(annotationClazz, analyzer, new ClassDataCollector() {
+      @Override
+      public void annotation(final Annotation annotation) {
+        if (annotation.getElementType() == ElementType.TYPE) {
+          result.add(annotation);
+        }
+      }
+    }).scan(readBytes(resource));
+    return result;
+  }
+}
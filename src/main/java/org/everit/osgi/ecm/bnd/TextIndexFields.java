@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Escaping of the fields of the line based text indexes ({@link AccessorIndex},
+ * {@link ComponentDependencyGraph}) where the fields are separated by spaces. The whitespace
+ * characters and the <code>%</code> character of a field are written as the <code>%XX</code>
+ * encoded bytes of their UTF-8 form, so free-form values like component ids always stay a single
+ * field.
+ */
+final class TextIndexFields {
+
+  private static final char ESCAPE_CHAR = '%';
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private TextIndexFields() {
+  }
+
+  /**
+   * Escapes a field. The field is returned as it is if it does not contain characters to escape.
+   */
+  static String escape(final String field) {
+    StringBuilder sb = null;
+    for (int i = 0, n = field.length(); i < n; i++) {
+      char c = field.charAt(i);
+      if (c == ESCAPE_CHAR || Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+        if (sb == null) {
+          sb = new StringBuilder(field.length() + 16).append(field, 0, i);
+        }
+        for (byte b : String.valueOf(c).getBytes(UTF_8)) {
+          sb.append(ESCAPE_CHAR).append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+      } else if (sb != null) {
+        sb.append(c);
+      }
+    }
+    return (sb == null) ? field : sb.toString();
+  }
+
+  /**
+   * Reverts {@link #escape(String)}.
+   *
+   * @throws IOException
+   *           if the field contains an invalid escape sequence.
+   */
+  static String unescape(final String field) throws IOException {
+    int escapeIndex = field.indexOf(ESCAPE_CHAR);
+    if (escapeIndex < 0) {
+      return field;
+    }
+    StringBuilder sb = new StringBuilder(field.length()).append(field, 0, escapeIndex);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int i = escapeIndex;
+    int n = field.length();
+    while (i < n) {
+      char c = field.charAt(i);
+      if (c == ESCAPE_CHAR) {
+        if (i + 2 >= n) {
+          throw new IOException("Invalid escape sequence in field: " + field);
+        }
+        int high = Character.digit(field.charAt(i + 1), 16);
+        int low = Character.digit(field.charAt(i + 2), 16);
+        if (high < 0 || low < 0) {
+          throw new IOException("Invalid escape sequence in field: " + field);
+        }
+        bytes.write((high << 4) | low);
+        i += 3;
+      } else {
+        if (bytes.size() > 0) {
+          sb.append(new String(bytes.toByteArray(), UTF_8));
+          bytes.reset();
+        }
+        sb.append(c);
+        i++;
+      }
+    }
+    if (bytes.size() > 0) {
+      sb.append(new String(bytes.toByteArray(), UTF_8));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+
+/**
+ * Index of the type hierarchies that are resolved while the component classes of a jar are
+ * processed. The transitive interfaces of every type are calculated only once and they are shared
+ * by all {@link ECMClassDataCollector}s of the same analysis.
+ */
+class TypeHierarchyIndex {
+
+  /**
+   * The resolved hierarchy of a type.
+   */
+  static final class Entry {
+
+    private final Set<String> dependencyPaths = new LinkedHashSet<>();
+
+    private final Set<String> interfaceNames = new LinkedHashSet<>();
+
+    private final Set<String> supertypeNames = new HashSet<>();
+
+    private final Set<String> unresolvedTypeNames = new LinkedHashSet<>();
+
+    /**
+     * The paths of the supertypes that were looked up during the resolution of the hierarchy,
+     * including the ones that could not be found.
+     */
+    public Set<String> getDependencyPaths() {
+      return Collections.unmodifiableSet(dependencyPaths);
+    }
+
+    /**
+     * The type itself (if it is an interface) and all interfaces that it extends or implements
+     * directly or indirectly. The order is the same as the order of a depth-first traversal where
+     * the superclass is visited before the implemented interfaces.
+     */
+    public Set<String> getInterfaceNames() {
+      return Collections.unmodifiableSet(interfaceNames);
+    }
+
+    /**
+     * The type itself and all classes and interfaces that it extends or implements directly or
+     * indirectly, as far as they could be resolved.
+     */
+    public Set<String> getSupertypeNames() {
+      return Collections.unmodifiableSet(supertypeNames);
+    }
+
+    /**
+     * The supertypes that could not be found. If this set is not empty, the other sets of the
+     * entry might be incomplete.
+     */
+    public Set<String> getUnresolvedTypeNames() {
+      return Collections.unmodifiableSet(unresolvedTypeNames);
+    }
+  }
+
+  private static final Entry EMPTY_ENTRY = new Entry();
+
+  private final Analyzer analyzer;
+
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  private final AnalysisStatistics statistics;
+
+  private final TypeLookupCache typeLookupCache;
+
+  private final Set<String> typesInProgress = new HashSet<>();
+
+  TypeHierarchyIndex(final Analyzer analyzer, final TypeLookupCache typeLookupCache,
+      final AnalysisStatistics statistics) {
+    this.analyzer = analyzer;
+    this.typeLookupCache = typeLookupCache;
+    this.statistics = statistics;
+  }
+
+  private void addSupertype(final String binaryName, final Entry entry) {
+    if (binaryName == null) {
+      return;
+    }
+    entry.dependencyPaths.add(binaryName + ".class");
+    TypeLookupCache.TypeInfo superTypeInfo = resolveTypeInfo(binaryName);
+    if (superTypeInfo != null) {
+      Entry superEntry = get(superTypeInfo);
+      entry.interfaceNames.addAll(superEntry.interfaceNames);
+      entry.dependencyPaths.addAll(superEntry.dependencyPaths);
+      entry.supertypeNames.addAll(superEntry.supertypeNames);
+      entry.unresolvedTypeNames.addAll(superEntry.unresolvedTypeNames);
+    } else {
+      entry.unresolvedTypeNames.add(analyzer.getTypeRef(binaryName).getFQN());
+    }
+  }
+
+  /**
+   * Checks whether a type can be found in the analyzed jar or on its classpath.
+   *
+   * @param binaryName
+   *          The binary name of the type, e.g.: <code>java/io/Closeable</code>.
+   * @return Whether the type exists.
+   */
+  public boolean exists(final String binaryName) {
+    return entries.containsKey(binaryName) || resolveTypeInfo(binaryName) != null;
+  }
+
+  /**
+   * Returns the resolved hierarchy of a type. In case the hierarchy contains a cycle (that is
+   * possible only with corrupt class files), the traversal stops at the type that is already in
+   * progress.
+   *
+   * @param clazz
+   *          The type.
+   * @return The resolved hierarchy, never <code>null</code>.
+   */
+  public Entry get(final Clazz clazz) {
+    return get(TypeLookupCache.TypeInfo.of(clazz));
+  }
+
+  private Entry get(final TypeLookupCache.TypeInfo typeInfo) {
+    String binaryName = typeInfo.getBinaryName();
+    Entry entry = entries.get(binaryName);
+    if (entry != null) {
+      return entry;
+    }
+    if (!typesInProgress.add(binaryName)) {
+      return EMPTY_ENTRY;
+    }
+    try {
+      entry = new Entry();
+      entry.supertypeNames.add(typeInfo.getFQN());
+      if (typeInfo.isInterface()) {
+        entry.interfaceNames.add(typeInfo.getFQN());
+      }
+      addSupertype(typeInfo.getSuperBinaryName(), entry);
+      for (String interfaceBinaryName : typeInfo.getInterfaceBinaryNames()) {
+        addSupertype(interfaceBinaryName, entry);
+      }
+      entries.put(binaryName, entry);
+      return entry;
+    } finally {
+      typesInProgress.remove(binaryName);
+    }
+  }
+
+  /**
+   * Resolves a supertype from the analyzed jar, from the shared {@link TypeLookupCache} or, if
+   * sharing is disabled, with {@link Analyzer#findClass(TypeRef)}.
+   */
+  private TypeLookupCache.TypeInfo resolveTypeInfo(final String binaryName) {
+    long startNanos = statistics.start();
+    try {
+      TypeRef typeRef = analyzer.getTypeRef(binaryName);
+      Clazz clazz = analyzer.getClassspace().get(typeRef);
+      if (clazz == null) {
+        if (typeLookupCache != null) {
+          return typeLookupCache.lookup(analyzer, typeRef, statistics);
+        }
+        statistics.increment(AnalysisStatistics.Counter.FIND_CLASS_CALLS);
+        clazz = analyzer.findClass(typeRef);
+      }
+      return (clazz == null) ? null : TypeLookupCache.TypeInfo.of(clazz);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      statistics.stop(AnalysisStatistics.Phase.HIERARCHY_RESOLUTION, startNanos);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Summary of the public types of a bundle that is embedded into the bundle, so the builds of the
+ * downstream bundles can resolve the hierarchies of these types without parsing their class files.
+ *
+ * <p>
+ * Format (UTF-8 text):
+ *
+ * <pre>
+ * ecm-type-summary 1
+ * &lt;binary name&gt; &lt;c|i&gt; &lt;superclass|-&gt; &lt;interfaces|-&gt;
+ * ...
+ * </pre>
+ *
+ * The superclass and the comma separated interfaces are stored with their binary names. Only the
+ * direct supertypes are stored. The supertypes that come from other bundles are resolved
+ * from the summaries or class files of those bundles.
+ */
+final class TypeHierarchySummary {
+
+  /**
+   * The path of the summary within the bundle.
+   */
+  public static final String PATH = "OSGI-INF/ecm/types.summary";
+
+  private static final String ABSENT = "-";
+
+  private static final String CLASS = "c";
+
+  private static final String HEADER = "ecm-type-summary 1";
+
+  private static final String INTERFACE = "i";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Reads a summary.
+   *
+   * @param in
+   *          The stream of the summary, it is not closed by this method.
+   * @return The types of the summary by their binary names.
+   * @throws IOException
+   *           if the summary cannot be read or its format is not supported.
+   */
+  public static Map<String, TypeLookupCache.TypeInfo> read(final InputStream in)
+      throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    String line = reader.readLine();
+    if (!HEADER.equals(line)) {
+      throw new IOException("Unsupported type summary header: " + line);
+    }
+    Map<String, TypeLookupCache.TypeInfo> result = new HashMap<>();
+    line = reader.readLine();
+    while (line != null) {
+      if (!line.isEmpty()) {
+        String[] parts = line.split(" ");
+        if (parts.length != 4) {
+          throw new IOException("Invalid type summary line: " + line);
+        }
+        String binaryName = parts[0];
+        String superBinaryName = ABSENT.equals(parts[2]) ? null : parts[2];
+        String[] interfaceBinaryNames =
+            ABSENT.equals(parts[3]) ? new String[0] : parts[3].split(",");
+        result.put(binaryName, new TypeLookupCache.TypeInfo(binaryName,
+            binaryName.replace('/', '.'), INTERFACE.equals(parts[1]), superBinaryName,
+            interfaceBinaryNames));
+      }
+      line = reader.readLine();
+    }
+    return result;
+  }
+
+  /**
+   * Writes the summary of types.
+   */
+  public static byte[] write(final Collection<TypeLookupCache.TypeInfo> types) {
+    StringBuilder sb = new StringBuilder(HEADER).append('\n');
+    for (TypeLookupCache.TypeInfo type : types) {
+      sb.append(type.getBinaryName()).append(' ')
+          .append(type.isInterface() ? INTERFACE : CLASS).append(' ');
+      String superBinaryName = type.getSuperBinaryName();
+      sb.append((superBinaryName == null) ? ABSENT : superBinaryName).append(' ');
+      String[] interfaceBinaryNames = type.getInterfaceBinaryNames();
+      if (interfaceBinaryNames.length == 0) {
+        sb.append(ABSENT);
+      } else {
+        for (int i = 0; i < interfaceBinaryNames.length; i++) {
+          if (i > 0) {
+            sb.append(',');
+          }
+          sb.append(interfaceBinaryNames[i]);
+        }
+      }
+      sb.append('\n');
+    }
+    return sb.toString().getBytes(UTF_8);
+  }
+
+  private TypeHierarchySummary() {
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * Bounded LRU cache of the supertypes that are looked up on the classpath while type hierarchies
+ * are resolved. One instance is shared by all Analyzers of the same JVM, so the types of the
+ * common dependencies (e.g. the JDK) are parsed only once in a workspace or Maven reactor build.
+ *
+ * <p>
+ * The classpath of the Analyzer is still walked for every lookup, as it is only a lookup in the
+ * entry maps of the classpath jars. The parsed type is cached by the location where it was found:
+ * the source file of the classpath jar, the path of the class and the modification time of the
+ * class file. Types that are found by the system class loader are cached by their path, together
+ * with the types that cannot be found at all.
+ *
+ * <p>
+ * If a classpath jar contains a {@link TypeHierarchySummary}, the types of the jar are taken from
+ * the summary instead of parsing their class files.
+ */
+class TypeLookupCache {
+
+  /**
+   * The structure of a type that is necessary to resolve its hierarchy. The instances do not
+   * reference the {@link Analyzer} that looked them up.
+   */
+  static final class TypeInfo {
+
+    private final String binaryName;
+
+    private final String fqn;
+
+    private final String[] interfaceBinaryNames;
+
+    private final boolean isInterface;
+
+    private final String superBinaryName;
+
+    TypeInfo(final String binaryName, final String fqn, final boolean isInterface,
+        final String superBinaryName, final String[] interfaceBinaryNames) {
+      this.binaryName = binaryName;
+      this.fqn = fqn;
+      this.isInterface = isInterface;
+      this.superBinaryName = superBinaryName;
+      this.interfaceBinaryNames = interfaceBinaryNames;
+    }
+
+    /**
+     * Copies the structure of a parsed class.
+     */
+    static TypeInfo of(final Clazz clazz) {
+      TypeRef superTypeRef = clazz.getSuper();
+      TypeRef[] interfaces = clazz.getInterfaces();
+      String[] interfaceBinaryNames;
+      if (interfaces == null) {
+        interfaceBinaryNames = new String[0];
+      } else {
+        interfaceBinaryNames = new String[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+          interfaceBinaryNames[i] = interfaces[i].getBinary();
+        }
+      }
+      return new TypeInfo(clazz.getClassName().getBinary(), clazz.getFQN(), clazz.isInterface(),
+          (superTypeRef == null) ? null : superTypeRef.getBinary(), interfaceBinaryNames);
+    }
+
+    public String getBinaryName() {
+      return binaryName;
+    }
+
+    public String getFQN() {
+      return fqn;
+    }
+
+    /**
+     * The binary names of the directly implemented or extended interfaces.
+     */
+    public String[] getInterfaceBinaryNames() {
+      return interfaceBinaryNames.clone();
+    }
+
+    /**
+     * The binary name of the superclass or <code>null</code> if the type does not have one.
+     */
+    public String getSuperBinaryName() {
+      return superBinaryName;
+    }
+
+    public boolean isInterface() {
+      return isInterface;
+    }
+  }
+
+  /**
+   * The default maximum number of entries of the shared instance.
+   */
+  public static final int DEFAULT_MAX_SIZE = 16384;
+
+  private static final int MAX_SUMMARY_COUNT = 256;
+
+  private static final TypeInfo NOT_FOUND = new TypeInfo(null, null, false, null, null);
+
+  private static final TypeLookupCache SHARED_INSTANCE = new TypeLookupCache(DEFAULT_MAX_SIZE);
+
+  private final LinkedHashMap<String, TypeInfo> entries =
+      new LinkedHashMap<String, TypeInfo>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, TypeInfo> eldest) {
+          return size() > maxSize;
+        }
+      };
+
+  private int maxSize;
+
+  private final LinkedHashMap<String, Map<String, TypeInfo>> summaries =
+      new LinkedHashMap<String, Map<String, TypeInfo>>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<String, Map<String, TypeInfo>> eldest) {
+          return size() > MAX_SUMMARY_COUNT;
+        }
+      };
+
+  TypeLookupCache(final int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * The instance that is shared by all Analyzers of the JVM.
+   */
+  static TypeLookupCache getSharedInstance() {
+    return SHARED_INSTANCE;
+  }
+
+  private synchronized TypeInfo get(final String key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Returns the {@link TypeHierarchySummary} of a classpath jar or <code>null</code> if the jar
+   * does not contain one. The summaries of the jars that have a source file are parsed only once.
+   */
+  private Map<String, TypeInfo> getSummary(final Jar jar) throws IOException {
+    Resource summaryResource = jar.getResource(TypeHierarchySummary.PATH);
+    if (summaryResource == null) {
+      return null;
+    }
+    File source = jar.getSource();
+    String key = null;
+    if (source != null) {
+      key = source.getAbsolutePath() + '@' + summaryResource.lastModified();
+      synchronized (this) {
+        Map<String, TypeInfo> summary = summaries.get(key);
+        if (summary != null) {
+          return summary;
+        }
+      }
+    }
+    Map<String, TypeInfo> summary;
+    try (InputStream in = summaryResource.openInputStream()) {
+      summary = TypeHierarchySummary.read(in);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Cannot read " + TypeHierarchySummary.PATH + " of " + jar, e);
+    }
+    if (key != null) {
+      synchronized (this) {
+        summaries.put(key, summary);
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Raises the maximum number of entries if it is smaller than the specified value. The maximum
+   * is never lowered, so an analysis cannot drop the entries that other analyses rely on.
+   */
+  public synchronized void growMaxSize(final int minimumMaxSize) {
+    if (minimumMaxSize > maxSize) {
+      maxSize = minimumMaxSize;
+    }
+  }
+
+  /**
+   * Looks up a type that is not part of the analyzed jar.
+   *
+   * @param analyzer
+   *          The Analyzer whose classpath is searched. It must not be used by other threads during
+   *          the lookup.
+   * @param typeRef
+   *          The reference of the type.
+   * @param statistics
+   *          The statistics where the lookups are counted.
+   * @return The structure of the type or <code>null</code> if the type cannot be found.
+   * @throws Exception
+   *           if the class file cannot be parsed.
+   */
+  public TypeInfo lookup(final Analyzer analyzer, final TypeRef typeRef,
+      final AnalysisStatistics statistics) throws Exception {
+    String path = typeRef.getPath();
+    String key = "system!" + path;
+    Jar containingJar = null;
+    for (Jar jar : analyzer.getClasspath()) {
+      Resource resource = jar.getResource(path);
+      if (resource != null) {
+        containingJar = jar;
+        File source = jar.getSource();
+        if (source == null) {
+          key = null;
+        } else {
+          key = source.getAbsolutePath() + '!' + path + '@' + resource.lastModified();
+        }
+        break;
+      }
+    }
+
+    TypeInfo typeInfo = (key == null) ? null : get(key);
+    if (typeInfo != null) {
+      statistics.increment(AnalysisStatistics.Counter.TYPE_CACHE_HITS);
+      return (typeInfo == NOT_FOUND) ? null : typeInfo;
+    }
+
+    if (containingJar != null) {
+      Map<String, TypeInfo> summary = getSummary(containingJar);
+      if (summary != null) {
+        typeInfo = summary.get(typeRef.getBinary());
+      }
+    }
+    if (typeInfo != null) {
+      statistics.increment(AnalysisStatistics.Counter.TYPE_SUMMARY_HITS);
+    } else {
+      statistics.increment(AnalysisStatistics.Counter.FIND_CLASS_CALLS);
+      Clazz clazz = analyzer.findClass(typeRef);
+      typeInfo = (clazz == null) ? NOT_FOUND : TypeInfo.of(clazz);
+    }
+    if (key != null) {
+      put(key, typeInfo);
+    }
+    return (typeInfo == NOT_FOUND) ? null : typeInfo;
+  }
+
+  private synchronized void put(final String key, final TypeInfo typeInfo) {
+    entries.put(key, typeInfo);
+  }
+
+  /**
+   * Changes the maximum number of entries. The least recently used entries are dropped if the
+   * cache contains more entries than the new maximum.
+   */
+  public synchronized void setMaxSize(final int maxSize) {
+    this.maxSize = maxSize;
+    Iterator<String> iterator = entries.keySet().iterator();
+    while (entries.size() > maxSize && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.annotation.bnd;
+
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.PasswordAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttributes;
+
+@Component(componentId = "configurable", configurationPid = "org.example.configurable",
+    configurationPolicy = ConfigurationPolicy.FACTORY, label = "%testLabel")
+@StringAttributes({
+    @StringAttribute(attributeId = "name", defaultValue = "a,b", description = "The name",
+        setter = "setName"),
+    @StringAttribute(attributeId = "hidden", metatype = false) })
+public class ConfigurableComponent {
+
+  @Activate
+  public void activate() {
+  }
+
+  @Deactivate
+  public void deactivate() {
+  }
+
+  public void setName(final String name) {
+  }
+
+  @PasswordAttribute(optional = true)
+  public void setPassword(final String password) {
+  }
+
+  @IntegerAttribute(label = "Ports", defaultValue = { 80, 443 })
+  public void setPorts(final int[] ports) {
+  }
+
+  @ServiceRef(defaultValue = "(name=main)")
+  public void setRunnable(final Runnable runnable) {
+  }
+
+}
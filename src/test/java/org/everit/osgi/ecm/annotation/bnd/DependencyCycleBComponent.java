@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.annotation.bnd;
+
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.ServiceRefs;
+
+@Component(componentId = "cycleB")
+@Service(Comparator.class)
+@ServiceRefs({ @ServiceRef(referenceId = "callable", referenceInterface = Callable.class) })
+public class DependencyCycleBComponent implements Comparator<Object> {
+
+  @Override
+  public int compare(final Object o1, final Object o2) {
+    return 0;
+  }
+
+}
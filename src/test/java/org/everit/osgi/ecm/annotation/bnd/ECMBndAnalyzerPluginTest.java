@@ -15,27 +15,69 @@
  */
 package org.everit.osgi.ecm.annotation.bnd;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.everit.osgi.ecm.annotation.bnd.ClassThatContainsComponent.EmbeddedClassWithCustomIdComponent;
+import org.everit.osgi.ecm.bnd.AccessorData;
+import org.everit.osgi.ecm.bnd.AccessorIndex;
+import org.everit.osgi.ecm.bnd.ComponentData;
+import org.everit.osgi.ecm.bnd.ComponentDependencyGraph;
+import org.everit.osgi.ecm.bnd.ComponentIndex;
+import org.everit.osgi.ecm.bnd.ECMBatchAnalyzer;
 import org.everit.osgi.ecm.bnd.ECMBndAnalyzerPlugin;
+import org.everit.osgi.ecm.bnd.ECMInstructions;
+import org.everit.osgi.ecm.bnd.RepositoryIndexAggregator;
 import org.junit.Assert;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Resource;
 
 public class ECMBndAnalyzerPluginTest {
 
   private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
+  private Analyzer createAnalyzer(final File jar, final Map<String, String> properties)
+      throws IOException {
+    Analyzer analyzer = new Analyzer();
+    analyzer.setJar(jar);
+    for (Entry<String, String> property : properties.entrySet()) {
+      analyzer.setProperty(property.getKey(), property.getValue());
+    }
+    analyzer.addBasicPlugin(new ECMBndAnalyzerPlugin());
+    return analyzer;
+  }
+
   private File createJar(final Class<?>[] classses, final String[] resources) {
     File file;
     try {
@@ -65,11 +107,32 @@ public class ECMBndAnalyzerPluginTest {
     return file;
   }
 
+  private File createTempDirectory() {
+    try {
+      return Files.createTempDirectory("bndTest").toFile();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void deleteDirectory(final File directory) {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
   private Manifest generateManifestForClasses(final Class<?>[] classes, final String[] resources) {
+    return generateManifestForClasses(classes, resources, Collections.<String, String> emptyMap());
+  }
+
+  private Manifest generateManifestForClasses(final Class<?>[] classes, final String[] resources,
+      final Map<String, String> properties) {
     File jar = createJar(classes, resources);
-    try (Analyzer analyzer = new Analyzer()) {
-      analyzer.setJar(jar);
-      analyzer.addBasicPlugin(new ECMBndAnalyzerPlugin());
+    try (Analyzer analyzer = createAnalyzer(jar, properties)) {
       return analyzer.calcManifest();
     } catch (Exception e) {
       throw new RuntimeException(e);
@@ -78,6 +141,65 @@ public class ECMBndAnalyzerPluginTest {
     }
   }
 
+  /**
+   * Runs the analysis and returns the content of a resource of the analyzed jar.
+   *
+   * @return The content of the resource or <code>null</code> if the resource does not exist.
+   */
+  private byte[] generateResourceForClasses(final Class<?>[] classes, final String[] resources,
+      final Map<String, String> properties, final String resourcePath) {
+    File jar = createJar(classes, resources);
+    try (Analyzer analyzer = createAnalyzer(jar, properties)) {
+      analyzer.calcManifest();
+      Resource resource = analyzer.getJar().getResource(resourcePath);
+      if (resource == null) {
+        return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      resource.write(out);
+      return out.toByteArray();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      jar.delete();
+    }
+  }
+
+  @Test
+  public void testAccessorIndex() throws IOException {
+    File cacheDirectory = createTempDirectory();
+    try {
+      Class<?>[] classes = new Class<?>[] { ConfigurableComponent.class };
+      Map<String, String> properties = new HashMap<>();
+      properties.put(ECMInstructions.ACCESSORS, "true");
+      properties.put(ECMInstructions.CACHE, cacheDirectory.getAbsolutePath());
+      byte[] index = generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+          AccessorIndex.DEFAULT_PATH);
+      Assert.assertArrayEquals(index, generateResourceForClasses(classes, EMPTY_STRING_ARRAY,
+          properties, AccessorIndex.DEFAULT_PATH));
+
+      List<ComponentData> components = AccessorIndex.read(new ByteArrayInputStream(index));
+      Assert.assertEquals(1, components.size());
+      Assert.assertEquals("configurable", components.get(0).getComponentId());
+      Assert.assertEquals(ConfigurableComponent.class.getName(),
+          components.get(0).getClassName());
+      AccessorData accessorData = components.get(0).getAccessor();
+      Assert.assertTrue(accessorData.isPublicConstructor());
+      Assert.assertEquals("activate",
+          accessorData.getLifecycleMethods().get("activate").getName());
+      Assert.assertEquals("()V",
+          accessorData.getLifecycleMethods().get("deactivate").getDescriptor());
+      Assert.assertFalse(accessorData.getLifecycleMethods().containsKey("update"));
+      Assert.assertEquals("(Ljava/lang/String;)V",
+          accessorData.getSetters().get("name").getDescriptor());
+      Assert.assertEquals("setPorts", accessorData.getSetters().get("ports").getName());
+      Assert.assertEquals("([I)V", accessorData.getSetters().get("ports").getDescriptor());
+      Assert.assertFalse(accessorData.getSetters().containsKey("hidden"));
+    } finally {
+      deleteDirectory(cacheDirectory);
+    }
+  }
+
   @Test
   public void testAllInterfacesServiceComponent() {
     Class<?>[] classes =
@@ -97,6 +219,226 @@ public class ECMBndAnalyzerPluginTest {
         provideCapabilityHeader);
   }
 
+  @Test
+  public void testBatchAnalyzer() throws Exception {
+    File simpleJar = createJar(new Class<?>[] { SimpleComponent.class }, EMPTY_STRING_ARRAY);
+    File inheritedJar = createJar(new Class<?>[] { InheritedInterfacesServiceComponent.class },
+        EMPTY_STRING_ARRAY);
+    File superclassJar =
+        createJar(new Class<?>[] { AbstractCloseableComponent.class }, EMPTY_STRING_ARRAY);
+    try {
+      List<ECMBatchAnalyzer.JarResult> results;
+      try (ECMBatchAnalyzer batchAnalyzer = new ECMBatchAnalyzer(2,
+          Collections.<String, String> emptyMap(), Arrays.asList(superclassJar))) {
+        results = batchAnalyzer.analyze(Arrays.asList(simpleJar, inheritedJar));
+      }
+      Assert.assertEquals(2, results.size());
+
+      ECMBatchAnalyzer.JarResult simpleResult = results.get(0);
+      Assert.assertEquals(simpleJar, simpleResult.getFile());
+      Assert.assertEquals(Collections.emptyList(), simpleResult.getErrors());
+      Assert.assertEquals(
+          generateManifestForClasses(new Class<?>[] { SimpleComponent.class }, EMPTY_STRING_ARRAY)
+              .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY),
+          simpleResult.getProvideCapability());
+
+      Assert.assertEquals(
+          generateManifestForClasses(new Class<?>[] { InheritedInterfacesServiceComponent.class,
+              AbstractCloseableComponent.class }, EMPTY_STRING_ARRAY)
+                  .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY),
+          results.get(1).getProvideCapability());
+
+      StringWriter writer = new StringWriter();
+      ECMBatchAnalyzer.writeRepositoryIndex(results, "test", writer);
+      String index = writer.toString();
+      Assert.assertTrue(index,
+          index.contains("<attribute name=\"osgi.content\" value=\"" + simpleResult.getSha256()));
+      Assert.assertTrue(index, index.contains("<attribute name=\"objectClass\""
+          + " type=\"List&lt;String&gt;\" value=\"java.io.Closeable,java.lang.AutoCloseable,"
+          + "java.io.Serializable\"/>"));
+    } finally {
+      simpleJar.delete();
+      inheritedJar.delete();
+      superclassJar.delete();
+    }
+  }
+
+  @Test
+  public void testCompactCapabilities() {
+    Class<?>[] classes = new Class<?>[] { AbstractCloseableComponent.class,
+        OtherInheritedInterfacesServiceComponent.class, SameInterfacesServiceComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.COMPACT, "true");
+    String provideCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY,
+        properties).getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+
+    List<String> clauses = splitClauses(provideCapabilityHeader);
+    Collections.sort(clauses);
+    Assert.assertEquals(Arrays.asList(
+        "org.everit.osgi.ecm.component;componentId=otherInherited;version:Version=\"0.0.0\";"
+            + "class=\"org.everit.osgi.ecm.annotation.bnd."
+            + "OtherInheritedInterfacesServiceComponent\"",
+        "org.everit.osgi.ecm.component;componentId=sameInterfaces;version:Version=\"0.0.0\";"
+            + "class=\"org.everit.osgi.ecm.annotation.bnd.SameInterfacesServiceComponent\"",
+        "osgi.service;objectClass:List<String>=\"java.io.Closeable,java.lang.AutoCloseable\""),
+        clauses);
+
+    byte[] index = generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        ComponentIndex.DEFAULT_PATH);
+    List<String> labels = new ArrayList<>();
+    for (ComponentData componentData : ComponentIndex.read(ByteBuffer.wrap(index))) {
+      labels.add(componentData.getLabel());
+    }
+    Collections.sort(labels);
+    Assert.assertEquals(Arrays.asList("otherInherited", "sameInterfaces"), labels);
+  }
+
+  @Test
+  public void testComponentAttributes() throws IOException {
+    Class<?>[] classes =
+        new Class<?>[] { LocalizedLabelAndDescriptionWithDefaultLocBaseComponent.class };
+    String[] resources = new String[] { "OSGI-INF/metatype/metatype.properties" };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.COMPONENT_ATTRIBUTES, "label");
+    String provideCapabilityHeader = generateManifestForClasses(classes, resources, properties)
+        .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+    Assert.assertTrue(provideCapabilityHeader,
+        provideCapabilityHeader.endsWith(";label=\"Test localized label\""));
+
+    File reportDirectory = createTempDirectory();
+    try {
+      File reportFile = new File(reportDirectory, "ecm-statistics.json");
+      properties.put(ECMInstructions.CACHE, new File(reportDirectory, "cache").getAbsolutePath());
+      properties.put(ECMInstructions.COMPONENT_ATTRIBUTES, "none");
+      properties.put(ECMInstructions.STATISTICS, "true");
+      properties.put(ECMInstructions.STATISTICS_REPORT, reportFile.getAbsolutePath());
+      // The localization file is not read if neither the label nor the description is written,
+      // neither when the cache entry is created nor when it is used
+      for (int i = 0; i < 2; i++) {
+        provideCapabilityHeader = generateManifestForClasses(classes, resources, properties)
+            .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+        Assert.assertFalse(provideCapabilityHeader, provideCapabilityHeader.contains("label="));
+
+        String report =
+            new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(report, report.contains("\"propertiesLoads\": 0"));
+        Assert.assertTrue(report, report.contains("\"cacheHits\": " + i));
+      }
+
+      properties.put(ECMInstructions.COMPONENT_ATTRIBUTES, "label");
+      provideCapabilityHeader = generateManifestForClasses(classes, resources, properties)
+          .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+      Assert.assertTrue(provideCapabilityHeader,
+          provideCapabilityHeader.endsWith(";label=\"Test localized label\""));
+    } finally {
+      deleteDirectory(reportDirectory);
+    }
+  }
+
+  @Test
+  public void testComponentDataCache() throws IOException {
+    File cacheDirectory = createTempDirectory();
+    try {
+      Class<?>[] classes = new Class<?>[] { AllInterfacesServiceComponent.class };
+      Map<String, String> properties = new HashMap<>();
+      properties.put(ECMInstructions.CACHE, cacheDirectory.getAbsolutePath());
+
+      String uncachedHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties)
+          .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+      String cachedHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties)
+          .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+      Assert.assertEquals(uncachedHeader, cachedHeader);
+
+      File[] entryFiles = cacheDirectory.listFiles();
+      Assert.assertEquals(1, entryFiles.length);
+
+      Properties entry = new Properties();
+      try (InputStream in = new FileInputStream(entryFiles[0])) {
+        entry.load(in);
+      }
+      entry.setProperty("label", "fromCache");
+      try (OutputStream out = new FileOutputStream(entryFiles[0])) {
+        entry.store(out, null);
+      }
+
+      String modifiedHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties)
+          .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+      Assert.assertEquals(uncachedHeader.replace("label=short", "label=fromCache"),
+          modifiedHeader);
+    } finally {
+      deleteDirectory(cacheDirectory);
+    }
+  }
+
+  @Test
+  public void testComponentIndex() {
+    Class<?>[] classes = new Class<?>[] { ServiceWithManualAndServiceComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    Assert.assertNull(generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        ComponentIndex.DEFAULT_PATH));
+
+    properties.put(ECMInstructions.INDEX, "true");
+    byte[] index = generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        ComponentIndex.DEFAULT_PATH);
+
+    List<ComponentData> components = ComponentIndex.read(ByteBuffer.wrap(index));
+    Assert.assertEquals(1, components.size());
+    ComponentData componentData = components.get(0);
+    Assert.assertEquals("short", componentData.getComponentId());
+    Assert.assertEquals(ServiceWithManualAndServiceComponent.class.getName(),
+        componentData.getClassName());
+    Assert.assertEquals("0.0.0", componentData.getVersion().toString());
+    Assert.assertEquals("short", componentData.getLabel());
+    Assert.assertNull(componentData.getDescription());
+    Assert.assertEquals("[[java.lang.Byte, java.lang.Integer],"
+        + " [java.lang.Integer, java.lang.String], [java.lang.String, java.lang.Short]]",
+        componentData.getServicesWithInterfaces().toString());
+
+    properties.put(ECMInstructions.INDEX, "OSGI-INF/custom.idx");
+    Assert.assertNotNull(generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        "OSGI-INF/custom.idx"));
+
+    properties.put(ECMInstructions.INDEX, "false");
+    Assert.assertNull(generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        ComponentIndex.DEFAULT_PATH));
+  }
+
+  @Test
+  public void testDependencyGraph() throws Exception {
+    Class<?>[] classes = new Class<?>[] { DependencyCycleAComponent.class,
+        DependencyCycleBComponent.class, ReferencingComponent.class, TaskComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.DEPENDENCY_GRAPH, "true");
+    ComponentDependencyGraph dependencyGraph =
+        ComponentDependencyGraph.read(new ByteArrayInputStream(generateResourceForClasses(classes,
+            EMPTY_STRING_ARRAY, properties, ComponentDependencyGraph.DEFAULT_PATH)));
+
+    Assert.assertEquals(Arrays.asList(Arrays.asList("task"), Arrays.asList("referencing")),
+        dependencyGraph.getLevels());
+    Assert.assertEquals(new HashSet<>(Arrays.asList("cycleA", "cycleB")),
+        dependencyGraph.getBlockedComponentIds());
+    Assert.assertEquals(Arrays.asList(Arrays.asList("cycleA", "cycleB")),
+        dependencyGraph.getCycles());
+    List<String> dependencies = new ArrayList<>();
+    for (ComponentDependencyGraph.Dependency dependency : dependencyGraph.getDependencies()) {
+      dependencies.add(dependency.getComponentId() + "." + dependency.getReferenceId() + "->"
+          + dependency.getProviderComponentId() + (dependency.isOptional() ? "?" : ""));
+    }
+    Assert.assertEquals(Arrays.asList("cycleA.comparator->cycleB", "cycleB.callable->cycleA",
+        "referencing.task->task", "task.callable->cycleA?"), dependencies);
+
+    File jar = createJar(classes, EMPTY_STRING_ARRAY);
+    try (Analyzer analyzer = createAnalyzer(jar, Collections.<String, String> emptyMap())) {
+      analyzer.calcManifest();
+      String warnings = analyzer.getWarnings().toString();
+      Assert.assertTrue(warnings, warnings.contains("ECM components [cycleA, cycleB] have"
+          + " mandatory references on each other in a cycle"));
+      Assert.assertNull(analyzer.getJar().getResource(ComponentDependencyGraph.DEFAULT_PATH));
+    } finally {
+      jar.delete();
+    }
+  }
+
   @Test
   public void testEmbeddedComponentWithCustomId() {
     Class<?>[] classes =
@@ -113,6 +455,47 @@ public class ECMBndAnalyzerPluginTest {
         provideCapabilityHeader);
   }
 
+  @Test
+  public void testIncludeAndExclude() {
+    Class<?>[] classes = new Class<?>[] { AbstractCloseableComponent.class,
+        InheritedInterfacesServiceComponent.class, OtherInheritedInterfacesServiceComponent.class,
+        SimpleComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.INCLUDE,
+        "!org.everit.osgi.ecm.annotation.bnd.Simple*,org.everit.osgi.ecm.annotation.*");
+    properties.put(ECMInstructions.EXCLUDE,
+        "org.everit.osgi.ecm.annotation.bnd.OtherInheritedInterfacesServiceComponent");
+    String provideCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY,
+        properties).getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+
+    Assert.assertTrue(provideCapabilityHeader,
+        provideCapabilityHeader.contains("componentId=inherited;"));
+    Assert.assertFalse(provideCapabilityHeader,
+        provideCapabilityHeader.contains("OtherInheritedInterfacesServiceComponent"));
+    Assert.assertFalse(provideCapabilityHeader,
+        provideCapabilityHeader.contains("SimpleComponent"));
+  }
+
+  @Test
+  public void testInheritedInterfacesServiceComponents() {
+    Class<?>[] classes =
+        new Class<?>[] { AbstractCloseableComponent.class,
+            InheritedInterfacesServiceComponent.class,
+            OtherInheritedInterfacesServiceComponent.class };
+    Manifest manifest = generateManifestForClasses(classes, EMPTY_STRING_ARRAY);
+    String provideCapabilityHeader =
+        manifest.getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+
+    Assert.assertTrue(provideCapabilityHeader.contains(
+        "osgi.service;objectClass:List<String>="
+            + "\"java.io.Closeable,java.lang.AutoCloseable,java.io.Serializable\";"
+            + "org.everit.osgi.ecm.component.id=inherited;"));
+    Assert.assertTrue(provideCapabilityHeader.contains(
+        "osgi.service;objectClass:List<String>="
+            + "\"java.io.Closeable,java.lang.AutoCloseable\";"
+            + "org.everit.osgi.ecm.component.id=otherInherited;"));
+  }
+
   @Test
   public void testLocalizedLabelAndDescriptionWithDefaultLocBaseComponent() {
     Class<?>[] classes =
@@ -153,6 +536,233 @@ public class ECMBndAnalyzerPluginTest {
         provideCapabilityHeader);
   }
 
+  @Test
+  public void testMergeWithExistingCapabilities() {
+    Class<?>[] classes = new Class<?>[] { SimpleComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(Constants.PROVIDE_CAPABILITY, "foo;bar:Long=1,foo;bar:Long=2");
+    Manifest manifest = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties);
+    String provideCapabilityHeader =
+        manifest.getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+
+    Assert.assertEquals(
+        "foo;bar:Long=1,foo;bar:Long=2,"
+            + "org.everit.osgi.ecm.component;"
+            + "componentId=\"org.everit.osgi.ecm.annotation.bnd.SimpleComponent\";"
+            + "version:Version=\"0.0.0\";"
+            + "class=\"org.everit.osgi.ecm.annotation.bnd.SimpleComponent\";"
+            + "label=\"org.everit.osgi.ecm.annotation.bnd.SimpleComponent\"",
+        provideCapabilityHeader);
+  }
+
+  @Test
+  public void testMergeWithExistingCapabilitiesOfSameComponent() {
+    Class<?>[] classes = new Class<?>[] { ClassThatContainsComponent.class,
+        EmbeddedClassWithCustomIdComponent.class };
+    String existing = "org.everit.osgi.ecm.component;componentId=customId;label=configured,"
+        + "osgi.service;objectClass:List<String>=\"java.lang.Runnable\";"
+        + "org.everit.osgi.ecm.component.id=customId,"
+        + "org.everit.osgi.ecm.component;componentId=other;label=other";
+    String generated = "org.everit.osgi.ecm.component;componentId=customId;"
+        + "version:Version=\"1.0.1\";"
+        + "class=\"org.everit.osgi.ecm.annotation.bnd."
+        + "ClassThatContainsComponent$EmbeddedClassWithCustomIdComponent\";"
+        + "label=customId";
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put(Constants.PROVIDE_CAPABILITY, existing);
+    Manifest manifest = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties);
+    Assert.assertEquals(
+        "org.everit.osgi.ecm.component;componentId=other;label=other," + generated,
+        manifest.getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY));
+
+    properties.put(ECMInstructions.CAPABILITY_CONFLICT, "existing");
+    manifest = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties);
+    Assert.assertEquals(existing,
+        manifest.getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY));
+  }
+
+  @Test
+  public void testMetatype() {
+    Class<?>[] classes = new Class<?>[] { ConfigurableComponent.class, SimpleComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.METATYPE, "true");
+    String metatype = new String(generateResourceForClasses(classes, EMPTY_STRING_ARRAY,
+        properties, "OSGI-INF/metatype/configurable.xml"), StandardCharsets.UTF_8);
+
+    Assert.assertTrue(metatype, metatype.contains(
+        "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\""
+            + " localization=\"OSGI-INF/metatype/metatype\">"));
+    Assert.assertTrue(metatype,
+        metatype.contains("<OCD id=\"org.example.configurable\" name=\"%testLabel\">"));
+    Assert.assertTrue(metatype, metatype.contains("<AD id=\"name\" type=\"String\""
+        + " name=\"name\" description=\"The name\" default=\"a\\,b\" required=\"true\"/>"));
+    Assert.assertFalse(metatype, metatype.contains("hidden"));
+    Assert.assertTrue(metatype, metatype.contains(
+        "<AD id=\"password\" type=\"Password\" name=\"password\" required=\"false\"/>"));
+    Assert.assertTrue(metatype, metatype.contains("<AD id=\"ports\" type=\"Integer\""
+        + " name=\"Ports\" default=\"80,443\" cardinality=\"2147483647\" required=\"true\"/>"));
+    Assert.assertTrue(metatype, metatype.contains("<AD id=\"runnable.target\" type=\"String\""
+        + " name=\"runnable.target\" default=\"(name=main)\" cardinality=\"2147483647\""
+        + " required=\"false\"/>"));
+    Assert.assertTrue(metatype, metatype.contains(
+        "<Designate factoryPid=\"org.example.configurable\">\n"
+            + "    <Object ocdref=\"org.example.configurable\"/>"));
+
+    String simpleComponentId = SimpleComponent.class.getName();
+    Assert.assertNull(generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        "OSGI-INF/metatype/" + simpleComponentId + ".xml"));
+    Assert.assertNull(generateResourceForClasses(classes, EMPTY_STRING_ARRAY,
+        Collections.<String, String> emptyMap(), "OSGI-INF/metatype/configurable.xml"));
+  }
+
+  @Test
+  public void testRepositoryFragment() throws Exception {
+    File fragmentDirectory = createTempDirectory();
+    try {
+      File fragmentFile = new File(fragmentDirectory, "repository.xml");
+      Map<String, String> properties = new HashMap<>();
+      properties.put(Constants.BUNDLE_SYMBOLICNAME, "test.bundle");
+      properties.put(Constants.BUNDLE_VERSION, "1.2.3");
+      properties.put(Constants.PROVIDE_CAPABILITY, "test.capability;size:Long=3");
+      properties.put(Constants.REQUIRE_CAPABILITY, "test.requirement;filter:=\"(size>=3)\"");
+      properties.put(ECMInstructions.COMPACT, "true");
+      properties.put(ECMInstructions.REPOSITORY_FRAGMENT, fragmentFile.getAbsolutePath());
+      generateManifestForClasses(new Class<?>[] { ServiceWithManualAndServiceComponent.class },
+          EMPTY_STRING_ARRAY, properties);
+
+      File bundleFile = new File(fragmentDirectory, "test.bundle.jar");
+      Files.write(bundleFile.toPath(), "bundle".getBytes(StandardCharsets.UTF_8));
+      StringWriter writer = new StringWriter();
+      RepositoryIndexAggregator.aggregate(Arrays.asList(fragmentFile, fragmentFile),
+          Arrays.asList(bundleFile, bundleFile), "test", 1, writer);
+      String index = writer.toString();
+      Assert.assertTrue(index,
+          index.contains("<attribute name=\"osgi.identity\" value=\"test.bundle\"/>"));
+      Assert.assertTrue(index,
+          index.contains("<attribute name=\"version\" type=\"Version\" value=\"1.2.3\"/>"));
+      Assert.assertTrue(index, index.contains("<attribute name=\"osgi.content\" value=\""
+          + "1e6ed65d77d6364eeaed5a745ba5c4985ae2b700dd85d7cf7f027bdf294a33fc\"/>"));
+      Assert.assertTrue(index,
+          index.contains("<attribute name=\"size\" type=\"Long\" value=\"3\"/>"));
+      Assert.assertTrue(index,
+          index.contains("<directive name=\"filter\" value=\"(size&gt;=3)\"/>"));
+      // The compact capabilities do not contain the label
+      Assert.assertFalse(index, index.contains("name=\"label\""));
+
+      DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+      documentBuilderFactory.setNamespaceAware(true);
+      Document document = documentBuilderFactory.newDocumentBuilder()
+          .parse(new InputSource(new StringReader(index)));
+      Assert.assertEquals(2, document.getElementsByTagNameNS(
+          "http://www.osgi.org/xmlns/repository/v1.0.0", "resource").getLength());
+      // identity, content, configured, component and three services per resource
+      Assert.assertEquals(14, document.getElementsByTagNameNS(
+          "http://www.osgi.org/xmlns/repository/v1.0.0", "capability").getLength());
+      Assert.assertEquals(2, document.getElementsByTagNameNS(
+          "http://www.osgi.org/xmlns/repository/v1.0.0", "requirement").getLength());
+    } finally {
+      deleteDirectory(fragmentDirectory);
+    }
+  }
+
+  @Test
+  public void testReproducibleOutput() {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.REPRODUCIBLE, "true");
+    Attributes attributes = generateManifestForClasses(new Class<?>[] {
+        AbstractCloseableComponent.class, SimpleComponent.class,
+        OtherInheritedInterfacesServiceComponent.class, InheritedInterfacesServiceComponent.class },
+        EMPTY_STRING_ARRAY, properties).getMainAttributes();
+    Attributes reorderedAttributes = generateManifestForClasses(new Class<?>[] {
+        InheritedInterfacesServiceComponent.class, OtherInheritedInterfacesServiceComponent.class,
+        SimpleComponent.class, AbstractCloseableComponent.class },
+        EMPTY_STRING_ARRAY, properties).getMainAttributes();
+
+    String provideCapabilityHeader = attributes.getValue(Constants.PROVIDE_CAPABILITY);
+    Assert.assertEquals(provideCapabilityHeader,
+        reorderedAttributes.getValue(Constants.PROVIDE_CAPABILITY));
+    String capabilityDigest = attributes.getValue(ECMBndAnalyzerPlugin.CAPABILITY_DIGEST_HEADER);
+    Assert.assertTrue(capabilityDigest, capabilityDigest.matches("sha-256:[0-9a-f]{64}"));
+    Assert.assertEquals(capabilityDigest,
+        reorderedAttributes.getValue(ECMBndAnalyzerPlugin.CAPABILITY_DIGEST_HEADER));
+
+    List<String> namespaces = new ArrayList<>();
+    for (String clause : splitClauses(provideCapabilityHeader)) {
+      namespaces.add(clause.substring(0, clause.indexOf(';')));
+    }
+    Assert.assertEquals(Arrays.asList("org.everit.osgi.ecm.component",
+        "org.everit.osgi.ecm.component", "org.everit.osgi.ecm.component", "osgi.service",
+        "osgi.service"), namespaces);
+    Assert.assertTrue(provideCapabilityHeader, provideCapabilityHeader.startsWith(
+        "org.everit.osgi.ecm.component;componentId=inherited;"));
+  }
+
+  @Test
+  public void testRequirements() {
+    Class<?>[] classes = new Class<?>[] { ReferencingComponent.class };
+    String requireCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY)
+        .getMainAttributes().getValue(Constants.REQUIRE_CAPABILITY);
+    Assert.assertTrue(String.valueOf(requireCapabilityHeader), requireCapabilityHeader == null
+        || !requireCapabilityHeader.contains("effective:=active"));
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.REQUIREMENTS, "true");
+    requireCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties)
+        .getMainAttributes().getValue(Constants.REQUIRE_CAPABILITY);
+    List<String> clauses = splitClauses(requireCapabilityHeader);
+
+    // The default filters are not written, as the configuration can replace them
+    Assert.assertTrue(requireCapabilityHeader, clauses.contains(
+        "osgi.service;filter:=\"(objectClass=java.lang.Runnable)\";effective:=active"));
+    Assert.assertTrue(requireCapabilityHeader, clauses.contains(
+        "osgi.extender;effective:=active;resolution:=optional"));
+    Assert.assertTrue(requireCapabilityHeader, clauses.contains(
+        "osgi.service;filter:=\"(objectClass=java.io.Closeable)\";effective:=active;"
+            + "resolution:=optional;cardinality:=multiple"));
+    Assert.assertTrue(requireCapabilityHeader, clauses.contains(
+        "osgi.service;filter:=\"(objectClass=java.lang.AutoCloseable)\";effective:=active"));
+  }
+
+  @Test
+  public void testServiceProperties() throws Exception {
+    Class<?>[] classes = new Class<?>[] { ServicePropertiesComponent.class };
+    String provideCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY)
+        .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+    List<String> clauses = splitClauses(provideCapabilityHeader);
+    Assert.assertTrue(provideCapabilityHeader, clauses.contains(
+        "osgi.service;objectClass:List<String>=\"java.lang.Runnable\";"
+            + "org.everit.osgi.ecm.component.id=withProperties;"
+            + "org.everit.osgi.ecm.component.version:Version=\"0.0.0\";"
+            + "service.ranking:Long=10;routing.keys:List<String>=\"a,b\\,c\""));
+    Assert.assertTrue(provideCapabilityHeader, clauses.contains(
+        "osgi.service;objectClass:List<String>=\"java.io.Closeable\";"
+            + "org.everit.osgi.ecm.component.id=withProperties;"
+            + "org.everit.osgi.ecm.component.version:Version=\"0.0.0\""));
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.COMPACT, "true");
+    provideCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties)
+        .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+    Assert.assertTrue(provideCapabilityHeader, splitClauses(provideCapabilityHeader).contains(
+        "osgi.service;objectClass:List<String>=\"java.lang.Runnable\";"
+            + "service.ranking:Long=10;routing.keys:List<String>=\"a,b\\,c\""));
+
+    File jar = createJar(classes, EMPTY_STRING_ARRAY);
+    try (Analyzer analyzer = createAnalyzer(jar, Collections.<String, String> emptyMap())) {
+      analyzer.calcManifest();
+      String warnings = analyzer.getWarnings().toString();
+      Assert.assertTrue(warnings, warnings.contains("Service property objectClass of ECM"
+          + " component withProperties is not added to the osgi.service capabilities:"
+          + " the name is reserved"));
+      Assert.assertTrue(warnings, warnings.contains("Service property weight of ECM component"
+          + " withProperties is not added to the osgi.service capabilities: value heavy is not a"
+          + " valid Long"));
+    } finally {
+      jar.delete();
+    }
+  }
+
   @Test
   public void testServiceWithManualAndServiceComponent() {
     Class<?>[] classes =
@@ -218,6 +828,27 @@ public class ECMBndAnalyzerPluginTest {
         provideCapabilityHeader);
   }
 
+  @Test
+  public void testStatistics() throws IOException {
+    File reportDirectory = createTempDirectory();
+    try {
+      File reportFile = new File(reportDirectory, "target/ecm-statistics.json");
+      Class<?>[] classes =
+          new Class<?>[] { SimpleComponent.class, AllInterfacesServiceComponent.class };
+      Map<String, String> properties = new HashMap<>();
+      properties.put(ECMInstructions.STATISTICS, "true");
+      properties.put(ECMInstructions.STATISTICS_REPORT, reportFile.getAbsolutePath());
+      generateManifestForClasses(classes, EMPTY_STRING_ARRAY, properties);
+
+      String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+      Assert.assertTrue(report, report.contains("\"componentsFound\": 2"));
+      Assert.assertTrue(report, report.contains("\"findClassCalls\": "));
+      Assert.assertTrue(report, report.contains("\"classParsing\": "));
+    } finally {
+      deleteDirectory(reportDirectory);
+    }
+  }
+
   @Test
   public void testStaticLabelAndDescriptionComponent() {
     Class<?>[] classes = new Class<?>[] { StaticLabelAndDescriptionComponent.class };
@@ -236,6 +867,172 @@ public class ECMBndAnalyzerPluginTest {
         provideCapabilityHeader);
   }
 
+  @Test
+  public void testStereotypes() {
+    Class<?>[] classes = new Class<?>[] { AbstractCloseableComponent.class,
+        ServiceComponentStereotype.class, StereotypedServiceComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.STEREOTYPES, "org.everit.osgi.ecm.annotation.bnd.*");
+    String provideCapabilityHeader = generateManifestForClasses(classes, EMPTY_STRING_ARRAY,
+        properties).getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+
+    Assert.assertEquals(Arrays.asList(
+        "org.everit.osgi.ecm.component;componentId=\""
+            + "org.everit.osgi.ecm.annotation.bnd.StereotypedServiceComponent\";"
+            + "version:Version=\"0.0.0\";"
+            + "class=\"org.everit.osgi.ecm.annotation.bnd.StereotypedServiceComponent\";"
+            + "label=\"Stereotyped component\"",
+        "osgi.service;objectClass:List<String>=\"java.io.Closeable,java.lang.AutoCloseable\";"
+            + "org.everit.osgi.ecm.component.id=\""
+            + "org.everit.osgi.ecm.annotation.bnd.StereotypedServiceComponent\";"
+            + "org.everit.osgi.ecm.component.version:Version=\"0.0.0\""),
+        splitClauses(provideCapabilityHeader));
+
+    String withoutStereotypes = generateManifestForClasses(classes, EMPTY_STRING_ARRAY)
+        .getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY);
+    Assert.assertNull(withoutStereotypes);
+  }
+
+  @Test
+  public void testStereotypesWithCache() {
+    File cacheDirectory = createTempDirectory();
+    try {
+      Class<?>[] classes = new Class<?>[] { AbstractCloseableComponent.class,
+          ServiceComponentStereotype.class, DirectlyAnnotatedStereotypedComponent.class };
+      Map<String, String> properties = new HashMap<>();
+      properties.put(ECMInstructions.CACHE, cacheDirectory.getAbsolutePath());
+      // The entries that were collected with other stereotype patterns are not used
+      for (String stereotypes : new String[] { null, "org.everit.osgi.ecm.annotation.bnd.*",
+          null }) {
+        if (stereotypes == null) {
+          properties.remove(ECMInstructions.STEREOTYPES);
+        } else {
+          properties.put(ECMInstructions.STEREOTYPES, stereotypes);
+        }
+        String provideCapabilityHeader = generateManifestForClasses(classes,
+            EMPTY_STRING_ARRAY, properties).getMainAttributes()
+                .getValue(Constants.PROVIDE_CAPABILITY);
+        Assert.assertEquals(provideCapabilityHeader, stereotypes != null,
+            provideCapabilityHeader.contains("osgi.service;"));
+      }
+    } finally {
+      deleteDirectory(cacheDirectory);
+    }
+  }
+
+  @Test
+  public void testTypeHierarchySummary() {
+    Class<?>[] classes = new Class<?>[] { InheritedInterfacesServiceComponent.class,
+        AbstractCloseableComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.TYPE_SUMMARY, "true");
+    String summary = new String(generateResourceForClasses(classes, EMPTY_STRING_ARRAY,
+        properties, "OSGI-INF/ecm/types.summary"), StandardCharsets.UTF_8);
+
+    Assert.assertTrue(summary, summary.contains(
+        "\norg/everit/osgi/ecm/annotation/bnd/AbstractCloseableComponent c java/lang/Object"
+            + " java/io/Closeable\n"));
+    Assert.assertTrue(summary, summary.contains(
+        "\norg/everit/osgi/ecm/annotation/bnd/InheritedInterfacesServiceComponent c"
+            + " org/everit/osgi/ecm/annotation/bnd/AbstractCloseableComponent"
+            + " java/lang/AutoCloseable,java/io/Serializable\n"));
+  }
+
+  @Test
+  public void testValidation() throws Exception {
+    File jar = createJar(new Class<?>[] { AbstractCloseableComponent.class,
+        AllInterfacesServiceComponent.class, UnimplementedServiceComponent.class },
+        EMPTY_STRING_ARRAY);
+    try {
+      try (Analyzer analyzer = createAnalyzer(jar, Collections.<String, String> emptyMap())) {
+        analyzer.calcManifest();
+        String errors = analyzer.getErrors().toString();
+        Assert.assertEquals(errors, 2, analyzer.getErrors().size());
+        Assert.assertTrue(errors,
+            errors.contains("ECM component id short is used by more than one class"));
+        Assert.assertTrue(errors, errors.contains("Service interface java.lang.Runnable"
+            + " of ECM component short is not implemented by class"
+            + " org.everit.osgi.ecm.annotation.bnd.UnimplementedServiceComponent"));
+      }
+
+      try (Analyzer analyzer =
+          createAnalyzer(jar, Collections.singletonMap(ECMInstructions.VALIDATE, "false"))) {
+        analyzer.calcManifest();
+        Assert.assertEquals(Collections.emptyList(), analyzer.getErrors());
+      }
+
+      // The second build validates the components that are read from the cache
+      File cacheDirectory = createTempDirectory();
+      try {
+        for (int i = 0; i < 2; i++) {
+          try (Analyzer analyzer = createAnalyzer(jar, Collections.singletonMap(
+              ECMInstructions.CACHE, cacheDirectory.getAbsolutePath()))) {
+            analyzer.calcManifest();
+            String errors = analyzer.getErrors().toString();
+            Assert.assertEquals(errors, 2, analyzer.getErrors().size());
+            Assert.assertTrue(errors, errors.contains("Service interface java.lang.Runnable"
+                + " of ECM component short is not implemented by class"
+                + " org.everit.osgi.ecm.annotation.bnd.UnimplementedServiceComponent"));
+          }
+        }
+      } finally {
+        deleteDirectory(cacheDirectory);
+      }
+    } finally {
+      jar.delete();
+    }
+  }
+
+  @Test
+  public void testWhitespaceInIds() throws IOException {
+    Class<?>[] classes = new Class<?>[] { TaskComponent.class, WhitespaceIdComponent.class };
+    Map<String, String> properties = new HashMap<>();
+    properties.put(ECMInstructions.ACCESSORS, "true");
+    properties.put(ECMInstructions.DEPENDENCY_GRAPH, "true");
+
+    byte[] index = generateResourceForClasses(classes, EMPTY_STRING_ARRAY, properties,
+        AccessorIndex.DEFAULT_PATH);
+    String indexContent = new String(index, StandardCharsets.UTF_8);
+    Assert.assertTrue(indexContent, indexContent.contains("\nc My%20Component "
+        + WhitespaceIdComponent.class.getName() + " y\n"));
+    List<String> componentIds = new ArrayList<>();
+    for (ComponentData componentData : AccessorIndex.read(new ByteArrayInputStream(index))) {
+      componentIds.add(componentData.getComponentId());
+    }
+    Collections.sort(componentIds);
+    Assert.assertEquals(Arrays.asList("My Component", "task"), componentIds);
+
+    ComponentDependencyGraph dependencyGraph =
+        ComponentDependencyGraph.read(new ByteArrayInputStream(generateResourceForClasses(classes,
+            EMPTY_STRING_ARRAY, properties, ComponentDependencyGraph.DEFAULT_PATH)));
+    Assert.assertEquals(Arrays.asList(Arrays.asList("task"), Arrays.asList("My Component")),
+        dependencyGraph.getLevels());
+    ComponentDependencyGraph.Dependency dependency = dependencyGraph.getDependencies().get(0);
+    Assert.assertEquals("My Component", dependency.getComponentId());
+    Assert.assertEquals("task runner", dependency.getReferenceId());
+    Assert.assertEquals("task", dependency.getProviderComponentId());
+  }
+
+  /**
+   * Splits a MANIFEST header to clauses by the commas that are not between quotes.
+   */
+  private List<String> splitClauses(final String header) {
+    List<String> result = new ArrayList<>();
+    boolean quoted = false;
+    int clauseStart = 0;
+    for (int i = 0, n = header.length(); i < n; i++) {
+      char c = header.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == ',' && !quoted) {
+        result.add(header.substring(clauseStart, i));
+        clauseStart = i + 1;
+      }
+    }
+    result.add(header.substring(clauseStart));
+    return result;
+  }
+
   private void writeResourceToOutputStream(final String resourceName, final OutputStream out)
       throws IOException {
     ClassLoader classLoader = this.getClass().getClassLoader();
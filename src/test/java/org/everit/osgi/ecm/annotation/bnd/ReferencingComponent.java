@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.annotation.bnd;
+
+import java.io.Closeable;
+
+import org.everit.osgi.ecm.annotation.BundleCapabilityRef;
+import org.everit.osgi.ecm.annotation.BundleCapabilityRefs;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.ServiceRefs;
+
+@Component(componentId = "referencing")
+@ServiceRefs({ @ServiceRef(referenceId = "task", referenceInterface = Runnable.class,
+    defaultValue = "(name=main)") })
+@BundleCapabilityRefs({ @BundleCapabilityRef(referenceId = "extender",
+    namespace = "osgi.extender", defaultValue = "(osgi.extender=ecm)", optional = true) })
+public class ReferencingComponent {
+
+  @ServiceRef(optional = true)
+  public void setCloseables(final Closeable[] closeables) {
+  }
+
+  @ServiceRef(referenceInterface = AutoCloseable.class)
+  public void setHolder(final Object holder) {
+  }
+
+}
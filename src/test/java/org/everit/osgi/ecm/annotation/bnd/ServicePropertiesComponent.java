@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.annotation.bnd;
+
+import java.io.Closeable;
+
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ManualService;
+import org.everit.osgi.ecm.annotation.ManualServices;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceProperties;
+import org.everit.osgi.ecm.annotation.ServiceProperty;
+import org.everit.osgi.ecm.annotation.ServicePropertyType;
+
+@Component(componentId = "withProperties")
+@Service(Runnable.class)
+@ManualServices(@ManualService(Closeable.class))
+@ServiceProperties({
+    @ServiceProperty(name = "service.ranking", type = ServicePropertyType.INTEGER, value = "10"),
+    @ServiceProperty(name = "routing.keys", value = { "a", "b,c" }),
+    @ServiceProperty(name = "objectClass", value = "java.lang.Object"),
+    @ServiceProperty(name = "weight", type = ServicePropertyType.LONG, value = "heavy") })
+public class ServicePropertiesComponent implements Runnable {
+
+  @Override
+  public void run() {
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.version.Version;
+
+public class CapabilityHeaderWriterTest {
+
+  private static ComponentData createComponentData(final String label, final String description) {
+    ComponentData componentData = new ComponentData();
+    componentData.setClassName("org.example.Component$Inner");
+    componentData.setComponentId("component-id_1");
+    componentData.setLabel(label);
+    componentData.setDescription(description);
+    componentData.setVersion(new Version("1.2.3.qualifier"));
+
+    Collection<Collection<String>> servicesWithInterfaces = new LinkedHashSet<>();
+    servicesWithInterfaces.add(new LinkedHashSet<>(Arrays.asList("java.lang.Runnable")));
+    servicesWithInterfaces.add(new LinkedHashSet<>(
+        Arrays.asList("java.io.Closeable", "java.lang.AutoCloseable")));
+    componentData.setServicesWithInterfaces(servicesWithInterfaces);
+    return componentData;
+  }
+
+  /**
+   * Generates the clauses with {@link Attrs} and {@link Parameters}, the same way as the plugin
+   * did before the {@link CapabilityHeaderWriter} was introduced.
+   */
+  private static String generateWithParameters(final ComponentData componentData) {
+    StringBuilder sb = new StringBuilder();
+
+    Attrs attrs = new Attrs();
+    attrs.put("componentId", componentData.getComponentId());
+    attrs.putTyped("version", componentData.getVersion());
+    attrs.put("class", componentData.getClassName());
+    attrs.put("label", componentData.getLabel());
+    if (componentData.getDescription() != null) {
+      attrs.put("description", componentData.getDescription());
+    }
+    Parameters parameters = new Parameters();
+    parameters.put("org.everit.osgi.ecm.component", attrs);
+    sb.append(parameters.toString());
+
+    for (Collection<String> serviceInterfaces : componentData.getServicesWithInterfaces()) {
+      attrs = new Attrs();
+      attrs.putTyped("objectClass", serviceInterfaces);
+      attrs.put("org.everit.osgi.ecm.component.id", componentData.getComponentId());
+      attrs.putTyped("org.everit.osgi.ecm.component.version", componentData.getVersion());
+      parameters = new Parameters();
+      parameters.put("osgi.service", attrs);
+      sb.append(',').append(parameters.toString());
+    }
+    return sb.toString();
+  }
+
+  private static String generateWithWriter(final ComponentData componentData) {
+    StringBuilder sb = new StringBuilder();
+    new CapabilityHeaderWriter(sb).write(componentData);
+    return sb.toString();
+  }
+
+  @Test
+  public void testEstimatedLengthIsSufficient() {
+    ComponentData componentData = createComponentData("Label", "Description");
+    int estimatedLength =
+        CapabilityHeaderWriter.estimateLength(Collections.singletonList(componentData));
+    Assert.assertTrue(estimatedLength >= generateWithWriter(componentData).length());
+  }
+
+  @Test
+  public void testSameOutputAsParameters() {
+    String[][] labelsAndDescriptions = new String[][] {
+        { "token", null },
+        { "Label with spaces", "Description, with comma" },
+        { "Label with \"quotes\"", "\"quoted\"" },
+        { "semi;colon", "equals=sign" },
+        { "", "x" } };
+
+    for (String[] labelAndDescription : labelsAndDescriptions) {
+      ComponentData componentData =
+          createComponentData(labelAndDescription[0], labelAndDescription[1]);
+      Assert.assertEquals(generateWithParameters(componentData),
+          generateWithWriter(componentData));
+    }
+  }
+
+  @Test
+  public void testSeparatesFromExistingContent() {
+    StringBuilder sb = new StringBuilder("existing");
+    CapabilityHeaderWriter capabilityHeaderWriter = new CapabilityHeaderWriter(sb);
+    ComponentData componentData = createComponentData("Label", null);
+    componentData.setServicesWithInterfaces(Collections.<Collection<String>> emptySet());
+    capabilityHeaderWriter.write(componentData);
+
+    Assert.assertEquals("existing,org.everit.osgi.ecm.component;componentId=component-id_1;"
+        + "version:Version=\"1.2.3.qualifier\";class=\"org.example.Component$Inner\";"
+        + "label=Label", sb.toString());
+  }
+}
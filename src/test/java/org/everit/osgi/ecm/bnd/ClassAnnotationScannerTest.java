@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.everit.osgi.ecm.annotation.bnd.ECMBndAnalyzerPluginTest;
+import org.everit.osgi.ecm.annotation.bnd.InheritedInterfacesServiceComponent;
+import org.everit.osgi.ecm.annotation.bnd.ServiceWithManualAndServiceComponent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Annotation;
+import aQute.bnd.osgi.ClassDataCollector;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Clazz.FieldDef;
+import aQute.bnd.osgi.Clazz.MethodDef;
+import aQute.bnd.osgi.Descriptors.TypeRef;
+
+public class ClassAnnotationScannerTest {
+
+  /**
+   * Records the callbacks of the collector in a comparable form.
+   */
+  private static class RecordingClassDataCollector extends ClassDataCollector {
+
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void annotation(final Annotation annotation) throws Exception {
+      StringBuilder sb = new StringBuilder("annotation ").append(annotation.getName().getFQN())
+          .append(' ').append(annotation.getElementType())
+          .append(' ').append(annotation.getRetentionPolicy());
+      for (String key : annotation.keySet()) {
+        sb.append(' ').append(key).append('=').append(toString(annotation.get(key)));
+      }
+      events.add(sb.toString());
+    }
+
+    @Override
+    public boolean classStart(final Clazz clazz) {
+      events.add("classStart " + clazz.getFQN());
+      return true;
+    }
+
+    @Override
+    public void classEnd() throws Exception {
+      events.add("classEnd");
+    }
+
+    @Override
+    public void extendsClass(final TypeRef typeRef) throws Exception {
+      events.add("extends " + typeRef.getFQN());
+    }
+
+    @Override
+    public void field(final FieldDef field) {
+      events.add("field " + field.getName() + " " + field.getDescriptor() + " "
+          + field.getAccess());
+    }
+
+    @Override
+    public void implementsInterfaces(final TypeRef[] interfaces) throws Exception {
+      events.add("implements " + toString(interfaces));
+    }
+
+    @Override
+    public void memberEnd() {
+      events.add("memberEnd");
+    }
+
+    @Override
+    public void method(final MethodDef method) {
+      events.add("method " + method.getName() + " " + method.getDescriptor() + " "
+          + method.getAccess());
+    }
+
+    private String toString(final Object value) {
+      if (value instanceof Object[]) {
+        List<String> result = new ArrayList<>();
+        for (Object element : (Object[]) value) {
+          result.add(toString(element));
+        }
+        return result.toString();
+      }
+      if (value instanceof TypeRef) {
+        return "class " + ((TypeRef) value).getFQN();
+      }
+      if (value instanceof Annotation) {
+        return "@" + ((Annotation) value).getName().getFQN();
+      }
+      return value.getClass().getSimpleName() + " " + value;
+    }
+  }
+
+  private static void assertSameEvents(final Class<?> type) throws Exception {
+    byte[] classBytes = readClassBytes(type);
+    try (Analyzer analyzer = new Analyzer()) {
+      Clazz clazz = new Clazz(analyzer, type.getName().replace('.', '/') + ".class", null);
+
+      RecordingClassDataCollector expected = new RecordingClassDataCollector();
+      clazz.parseClassFile(new ByteArrayInputStream(classBytes), expected);
+
+      RecordingClassDataCollector actual = new RecordingClassDataCollector();
+      new ClassAnnotationScanner(clazz, analyzer, actual).scan(classBytes);
+
+      Assert.assertFalse(expected.events.isEmpty());
+      Assert.assertEquals(expected.events, actual.events);
+    }
+  }
+
+  private static byte[] readClassBytes(final Class<?> type) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    try (InputStream in =
+        type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+      int r = in.read(buffer);
+      while (r >= 0) {
+        out.write(buffer, 0, r);
+        r = in.read(buffer);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testSameEventsAsBndParser() throws Exception {
+    for (Class<?> type : Arrays.asList(InheritedInterfacesServiceComponent.class,
+        ServiceWithManualAndServiceComponent.class, ECMBndAnalyzerPluginTest.class,
+        ClassAnnotationScannerTest.class, Long.class)) {
+      assertSameEvents(type);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.util.Locale;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Jar;
+
+public class LocalizationCacheTest {
+
+  private static final String BASE_NAME = "OSGI-INF/l10n/bundle";
+
+  private Jar createJar() throws Exception {
+    Jar jar = new Jar("test");
+    jar.putResource(BASE_NAME + ".properties",
+        new EmbeddedResource("label=Label\ndescription=Description\n", 0));
+    jar.putResource(BASE_NAME + "_hu.properties",
+        new EmbeddedResource("label=Cimke\n", 0));
+    jar.putResource(BASE_NAME + "_hu_HU.properties",
+        new EmbeddedResource("description=Leiras\n", 0));
+    return jar;
+  }
+
+  @Test
+  public void testLocaleFallback() throws Exception {
+    try (Jar jar = createJar(); LocalizationCache localizationCache = new LocalizationCache(jar)) {
+      Properties defaultProperties = localizationCache.getProperties(BASE_NAME, null);
+      Assert.assertEquals("Label", defaultProperties.getProperty("label"));
+
+      Properties englishProperties = localizationCache.getProperties(BASE_NAME, Locale.ENGLISH);
+      Assert.assertSame(defaultProperties, englishProperties);
+
+      Properties hungarianProperties =
+          localizationCache.getProperties(BASE_NAME, new Locale("hu", "HU"));
+      Assert.assertEquals("Cimke", hungarianProperties.getProperty("label"));
+      Assert.assertEquals("Leiras", hungarianProperties.getProperty("description"));
+      Assert.assertEquals("Description",
+          localizationCache.getProperties(BASE_NAME, new Locale("hu")).getProperty("description"));
+    }
+  }
+
+  @Test
+  public void testMissingLocalizationFile() throws Exception {
+    try (Jar jar = createJar(); LocalizationCache localizationCache = new LocalizationCache(jar)) {
+      Properties properties = localizationCache.getProperties("missing", Locale.ENGLISH);
+      Assert.assertTrue(properties.isEmpty());
+    }
+  }
+
+  @Test
+  public void testResourceIsLoadedOnce() throws Exception {
+    try (Jar jar = createJar(); LocalizationCache localizationCache = new LocalizationCache(jar)) {
+      Assert.assertSame(localizationCache.getProperties(BASE_NAME, null),
+          localizationCache.getProperties(BASE_NAME, null));
+    }
+  }
+}
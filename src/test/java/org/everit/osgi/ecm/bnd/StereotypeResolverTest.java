@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import org.everit.osgi.ecm.annotation.bnd.ServiceComponentStereotype;
+import org.junit.Assert;
+import org.junit.Test;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Annotation;
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Instructions;
+import aQute.bnd.osgi.Jar;
+
+public class StereotypeResolverTest {
+
+  private static final String STEREOTYPE_PATH =
+      "org/everit/osgi/ecm/annotation/bnd/ServiceComponentStereotype.class";
+
+  private void assertEffectiveAnnotations(final StereotypeResolver.Stereotype stereotype,
+      final Analyzer analyzer) {
+    List<Annotation> annotations = stereotype.getEffectiveAnnotations(analyzer);
+    Assert.assertEquals(2, annotations.size());
+    Assert.assertEquals("org.everit.osgi.ecm.annotation.Component",
+        annotations.get(0).getName().getFQN());
+    Assert.assertEquals("Stereotyped component", annotations.get(0).get("label"));
+    Assert.assertEquals("org.everit.osgi.ecm.annotation.Service",
+        annotations.get(1).getName().getFQN());
+    Assert.assertTrue(stereotype.getDependencyPaths().contains(STEREOTYPE_PATH));
+  }
+
+  private StereotypeResolver createResolver(final Analyzer analyzer,
+      final AnalysisStatistics statistics) {
+    return new StereotypeResolver(analyzer,
+        new Instructions(ServiceComponentStereotype.class.getName()), statistics);
+  }
+
+  private byte[] readStereotypeClass() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    try (InputStream in = getClass().getClassLoader().getResourceAsStream(STEREOTYPE_PATH)) {
+      int r = in.read(buffer);
+      while (r >= 0) {
+        out.write(buffer, 0, r);
+        r = in.read(buffer);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testResolvedOncePerAnalysis() throws Exception {
+    AnalysisStatistics statistics = new AnalysisStatistics(true);
+    try (Analyzer analyzer = new Analyzer()) {
+      Jar jar = new Jar("stereotypes");
+      jar.putResource(STEREOTYPE_PATH, new EmbeddedResource(readStereotypeClass(), 0));
+      analyzer.setJar(jar);
+      StereotypeResolver stereotypeResolver = createResolver(analyzer, statistics);
+
+      Assert.assertTrue(stereotypeResolver.isCandidate(ServiceComponentStereotype.class.getName()));
+      Assert.assertFalse(stereotypeResolver.isCandidate("org.example.Other"));
+      for (int i = 0; i < 3; i++) {
+        assertEffectiveAnnotations(stereotypeResolver.resolve(
+            analyzer.getTypeRef("org/everit/osgi/ecm/annotation/bnd/ServiceComponentStereotype")),
+            analyzer);
+      }
+    }
+    Assert.assertEquals(1,
+        statistics.getCount(AnalysisStatistics.Counter.STEREOTYPES_RESOLVED));
+  }
+
+  @Test
+  public void testSharedBetweenAnalyzers() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      AnalysisStatistics statistics = new AnalysisStatistics(true);
+      try (Analyzer analyzer = new Analyzer()) {
+        analyzer.setJar(new Jar("empty"));
+        StereotypeResolver stereotypeResolver = createResolver(analyzer, statistics);
+        assertEffectiveAnnotations(stereotypeResolver.resolve(
+            analyzer.getTypeRef("org/everit/osgi/ecm/annotation/bnd/ServiceComponentStereotype")),
+            analyzer);
+      }
+      if (i > 0) {
+        Assert.assertEquals(0,
+            statistics.getCount(AnalysisStatistics.Counter.STEREOTYPES_RESOLVED));
+      }
+    }
+  }
+}
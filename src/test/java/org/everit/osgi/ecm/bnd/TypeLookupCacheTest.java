@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.bnd;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Jar;
+
+public class TypeLookupCacheTest {
+
+  @Test
+  public void testEviction() throws Exception {
+    TypeLookupCache typeLookupCache = new TypeLookupCache(2);
+    AnalysisStatistics statistics = new AnalysisStatistics(true);
+    try (Analyzer analyzer = new Analyzer()) {
+      for (String binaryName : Arrays.asList("java/io/Closeable", "java/io/Serializable",
+          "java/lang/Runnable")) {
+        typeLookupCache.lookup(analyzer, analyzer.getTypeRef(binaryName), statistics);
+      }
+      Assert.assertEquals(2, typeLookupCache.size());
+
+      typeLookupCache.lookup(analyzer, analyzer.getTypeRef("java/io/Closeable"), statistics);
+      Assert.assertEquals(0, statistics.getCount(AnalysisStatistics.Counter.TYPE_CACHE_HITS));
+
+      typeLookupCache.setMaxSize(1);
+      Assert.assertEquals(1, typeLookupCache.size());
+      typeLookupCache.lookup(analyzer, analyzer.getTypeRef("java/io/Closeable"), statistics);
+      Assert.assertEquals(1, statistics.getCount(AnalysisStatistics.Counter.TYPE_CACHE_HITS));
+    }
+  }
+
+  @Test
+  public void testGrowMaxSize() throws Exception {
+    TypeLookupCache typeLookupCache = new TypeLookupCache(2);
+    AnalysisStatistics statistics = new AnalysisStatistics(true);
+    try (Analyzer analyzer = new Analyzer()) {
+      for (String binaryName : Arrays.asList("java/io/Closeable", "java/io/Serializable")) {
+        typeLookupCache.lookup(analyzer, analyzer.getTypeRef(binaryName), statistics);
+      }
+
+      typeLookupCache.growMaxSize(1);
+      Assert.assertEquals(2, typeLookupCache.size());
+      typeLookupCache.lookup(analyzer, analyzer.getTypeRef("java/lang/Runnable"), statistics);
+      Assert.assertEquals(2, typeLookupCache.size());
+
+      typeLookupCache.growMaxSize(3);
+      typeLookupCache.lookup(analyzer, analyzer.getTypeRef("java/io/Closeable"), statistics);
+      Assert.assertEquals(3, typeLookupCache.size());
+    }
+  }
+
+  @Test
+  public void testSharedBetweenAnalyzers() throws Exception {
+    TypeLookupCache typeLookupCache = new TypeLookupCache(TypeLookupCache.DEFAULT_MAX_SIZE);
+    AnalysisStatistics statistics = new AnalysisStatistics(true);
+    for (int i = 0; i < 2; i++) {
+      try (Analyzer analyzer = new Analyzer()) {
+        TypeLookupCache.TypeInfo typeInfo = typeLookupCache.lookup(analyzer,
+            analyzer.getTypeRef("java/lang/AutoCloseable"), statistics);
+        Assert.assertEquals("java.lang.AutoCloseable", typeInfo.getFQN());
+        Assert.assertTrue(typeInfo.isInterface());
+        Assert.assertEquals(0, typeInfo.getInterfaceBinaryNames().length);
+
+        Assert.assertNull(typeLookupCache.lookup(analyzer,
+            analyzer.getTypeRef("org/example/Missing"), statistics));
+      }
+    }
+    Assert.assertEquals(2, statistics.getCount(AnalysisStatistics.Counter.FIND_CLASS_CALLS));
+    Assert.assertEquals(2, statistics.getCount(AnalysisStatistics.Counter.TYPE_CACHE_HITS));
+  }
+
+  @Test
+  public void testTypeHierarchySummary() throws Exception {
+    TypeLookupCache.TypeInfo summarizedType = new TypeLookupCache.TypeInfo(
+        "org/example/Summarized", "org.example.Summarized", false, "java/lang/Object",
+        new String[] { "java/lang/Runnable" });
+    byte[] summary = TypeHierarchySummary.write(Arrays.asList(summarizedType));
+
+    Map<String, TypeLookupCache.TypeInfo> readSummary =
+        TypeHierarchySummary.read(new ByteArrayInputStream(summary));
+    Assert.assertEquals(Collections.singleton("org/example/Summarized"), readSummary.keySet());
+
+    TypeLookupCache typeLookupCache = new TypeLookupCache(TypeLookupCache.DEFAULT_MAX_SIZE);
+    AnalysisStatistics statistics = new AnalysisStatistics(true);
+    try (Analyzer analyzer = new Analyzer();
+        Jar upstreamJar = new Jar("upstream")) {
+      // The class file is not valid, so the type can only be resolved from the summary
+      upstreamJar.putResource("org/example/Summarized.class",
+          new EmbeddedResource(new byte[0], 0));
+      upstreamJar.putResource(TypeHierarchySummary.PATH, new EmbeddedResource(summary, 0));
+      analyzer.addClasspath(upstreamJar);
+
+      TypeLookupCache.TypeInfo typeInfo = typeLookupCache.lookup(analyzer,
+          analyzer.getTypeRef("org/example/Summarized"), statistics);
+      Assert.assertEquals("org.example.Summarized", typeInfo.getFQN());
+      Assert.assertFalse(typeInfo.isInterface());
+      Assert.assertEquals("java/lang/Object", typeInfo.getSuperBinaryName());
+      Assert.assertArrayEquals(new String[] { "java/lang/Runnable" },
+          typeInfo.getInterfaceBinaryNames());
+    }
+    Assert.assertEquals(1, statistics.getCount(AnalysisStatistics.Counter.TYPE_SUMMARY_HITS));
+    Assert.assertEquals(0, statistics.getCount(AnalysisStatistics.Counter.FIND_CLASS_CALLS));
+  }
+}